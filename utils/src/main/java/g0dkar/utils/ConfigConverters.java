@@ -0,0 +1,140 @@
+package g0dkar.utils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import g0dkar.utils.json.IsoTime;
+
+/**
+ * <p>Registry of String-to-type converters used by {@link Configuration#get(String, Object)} and {@link ConfigKey}. Out of the box:</p>
+ * 
+ * <ul>
+ * <li>{@link String}
+ * <li>{@code String[]} and {@link List List&lt;String&gt;}: comma separated values ({@code "a, b,c"})
+ * <li>{@link Boolean}: {@link StringUtils#parseBoolean(String)}
+ * <li>{@link Integer}, {@link Long}, {@link Double} and {@link BigDecimal}
+ * <li>{@link Date}, {@link Calendar} and {@link Instant}: ISO date-times with an offset ({@code 2011-12-03T10:15:30Z})
+ * <li>{@link Duration}: ISO durations ({@code PT15M})
+ * </ul>
+ * 
+ * <p>Other types can be {@link #register(Class, Function) registered} (at startup). A type without a converter of its own uses its closest
+ * superclass' (or interface's) one: a {@code GregorianCalendar} is converted as a {@link Calendar}.</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public final class ConfigConverters {
+	private static final Pattern COMMA = Pattern.compile("\\s*,\\s*");
+	private static final Map<Class<?>, Function<String, ?>> CONVERTERS = new ConcurrentHashMap<>();
+	
+	static {
+		register(String.class, Function.identity());
+		register(String[].class, COMMA::split);
+		register(List.class, value -> Arrays.asList(COMMA.split(value)));
+		register(Boolean.class, StringUtils::parseBoolean);
+		register(Integer.class, value -> Integer.valueOf(value, 10));
+		register(Long.class, value -> Long.valueOf(value, 10));
+		register(Double.class, Double::valueOf);
+		register(BigDecimal.class, BigDecimal::new);
+		register(Date.class, value -> new Date(IsoTime.parseEpochMillis(value)));
+		register(Calendar.class, IsoTime::parseCalendar);
+		register(Instant.class, IsoTime::parseInstant);
+		register(Duration.class, Duration::parse);
+	}
+	
+	private ConfigConverters() {}
+	
+	/**
+	 * Registers (or replaces) the converter of a type
+	 * 
+	 * @param type The type
+	 * @param converter Converts a (non-{@code null}) configuration value. Should throw a {@link RuntimeException} for invalid values.
+	 */
+	public static <T> void register(final Class<T> type, final Function<String, ? extends T> converter) {
+		CONVERTERS.put(type, converter);
+	}
+	
+	/**
+	 * @param type The type
+	 * @return The converter for {@code type} (or for its closest supertype) or {@code null} if there's none
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Function<String, T> get(final Class<T> type) {
+		Function<String, ?> converter = CONVERTERS.get(type);
+		
+		if (converter == null) {
+			converter = lookup(type);
+			
+			if (converter != null) {
+				CONVERTERS.putIfAbsent(type, converter);
+			}
+		}
+		
+		return (Function<String, T>) converter;
+	}
+	
+	/**
+	 * @param type The type
+	 * @param value The (non-{@code null}) configuration value
+	 * @return The converted value
+	 * @throws IllegalArgumentException There's no converter for {@code type}
+	 * @throws RuntimeException Whatever the converter throws for invalid values ({@link NumberFormatException},
+	 *             {@link java.time.format.DateTimeParseException DateTimeParseException}...)
+	 */
+	public static <T> T convert(final Class<T> type, final String value) {
+		final Function<String, T> converter = get(type);
+		
+		if (converter == null) {
+			throw new IllegalArgumentException("No configuration converter for " + type.getName());
+		}
+		
+		return converter.apply(value);
+	}
+	
+	/** The closest superclass with a converter or else the closest interface (of the type or any superclass, breadth-first) with one */
+	private static Function<String, ?> lookup(final Class<?> type) {
+		for (Class<?> superclass = type.getSuperclass(); superclass != null; superclass = superclass.getSuperclass()) {
+			final Function<String, ?> converter = CONVERTERS.get(superclass);
+			
+			if (converter != null) {
+				return converter;
+			}
+		}
+		
+		// e.g. Arrays.asList()'s class only gets List through AbstractList
+		final Deque<Class<?>> interfaces = new ArrayDeque<>();
+		for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+			interfaces.addAll(Arrays.asList(current.getInterfaces()));
+		}
+		
+		final Set<Class<?>> seen = new HashSet<>();
+		while (!interfaces.isEmpty()) {
+			final Class<?> iface = interfaces.removeFirst();
+			
+			if (seen.add(iface)) {
+				final Function<String, ?> converter = CONVERTERS.get(iface);
+				
+				if (converter != null) {
+					return converter;
+				}
+				
+				interfaces.addAll(Arrays.asList(iface.getInterfaces()));
+			}
+		}
+		
+		return null;
+	}
+}
@@ -0,0 +1,147 @@
+package g0dkar.utils;
+
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A typed handle to a configuration. Create it once (e.g. as a {@code static final} field) and read it as often as needed: the
+ * converted value is kept next to the raw String it came from and is only converted again when the raw value changes.</p>
+ * 
+ * <pre>
+ * private static final ConfigKey&lt;Integer&gt; PAGE_SIZE = ConfigKey.of("app.pageSize", 20);
+ * ...
+ * final int pageSize = configuration.get(PAGE_SIZE);
+ * </pre>
+ * 
+ * <p>Converted values are shared between every reader, so mutable ones ({@code String[]}, {@link java.util.Date Date},
+ * {@link java.util.Calendar Calendar}...) must not be modified.</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <T> Value type
+ * @see ConfigConverters
+ */
+public final class ConfigKey<T> {
+	private static final Logger log = LoggerFactory.getLogger(ConfigKey.class);
+	
+	private final String name;
+	private final Class<T> type;
+	private final T defaultValue;
+	private final Function<String, ? extends T> converter;
+	private volatile Converted<T> converted;
+	
+	private ConfigKey(final String name, final Class<T> type, final T defaultValue, final Function<String, ? extends T> converter) {
+		this.name = name;
+		this.type = type;
+		this.defaultValue = defaultValue;
+		this.converter = converter;
+	}
+	
+	/**
+	 * @param name Configuration name
+	 * @param defaultValue Value used if the configuration doesn't exist or is invalid (not {@code null}: its class is the key's type)
+	 * @return The handle
+	 * @throws IllegalArgumentException There's no {@link ConfigConverters converter} for that type
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ConfigKey<T> of(final String name, final T defaultValue) {
+		return of(name, (Class<T>) defaultValue.getClass(), defaultValue);
+	}
+	
+	/**
+	 * @param name Configuration name
+	 * @param type Value type
+	 * @param defaultValue Value used if the configuration doesn't exist or is invalid (may be {@code null})
+	 * @return The handle
+	 * @throws IllegalArgumentException There's no {@link ConfigConverters converter} for {@code type}
+	 */
+	public static <T> ConfigKey<T> of(final String name, final Class<T> type, final T defaultValue) {
+		final Function<String, T> converter = ConfigConverters.get(type);
+		
+		if (converter == null) {
+			throw new IllegalArgumentException("No configuration converter for " + type.getName());
+		}
+		
+		return new ConfigKey<>(name, type, defaultValue, converter);
+	}
+	
+	/**
+	 * @param name Configuration name
+	 * @param type Value type
+	 * @param defaultValue Value used if the configuration doesn't exist or is invalid (may be {@code null})
+	 * @param converter Converts the (non-{@code null}) raw value
+	 * @return The handle
+	 */
+	public static <T> ConfigKey<T> of(final String name, final Class<T> type, final T defaultValue, final Function<String, ? extends T> converter) {
+		return new ConfigKey<>(name, type, defaultValue, converter);
+	}
+	
+	/**
+	 * @param configuration Where to read it from
+	 * @return The configuration value or {@link #getDefaultValue() the default value} if it doesn't exist or is invalid
+	 */
+	public T get(final Configuration configuration) {
+		return convert(configuration.get(name));
+	}
+	
+	/**
+	 * @param raw The raw configuration value
+	 * @return The converted value (the cached one if {@code raw} didn't change) or the default value
+	 */
+	T convert(final String raw) {
+		if (raw == null) {
+			return defaultValue;
+		}
+		
+		final Converted<T> current = converted;
+		
+		if (current != null && (current.raw == raw || current.raw.equals(raw))) {
+			return current.value;
+		}
+		
+		T value;
+		try {
+			value = converter.apply(raw);
+		} catch (final RuntimeException e) {
+			if (log.isDebugEnabled()) { log.debug("Error converting config " + name + " to " + type.getSimpleName(), e); }
+			value = null;
+		}
+		
+		if (value == null) {
+			value = defaultValue;
+		}
+		
+		converted = new Converted<>(raw, value);
+		return value;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public Class<T> getType() {
+		return type;
+	}
+	
+	public T getDefaultValue() {
+		return defaultValue;
+	}
+	
+	@Override
+	public String toString() {
+		return "ConfigKey[" + name + ": " + type.getSimpleName() + "]";
+	}
+	
+	/** Immutable, so it's safely published through the volatile field */
+	private static final class Converted<T> {
+		final String raw;
+		final T value;
+		
+		Converted(final String raw, final T value) {
+			this.raw = raw;
+			this.value = value;
+		}
+	}
+}
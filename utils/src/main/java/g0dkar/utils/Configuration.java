@@ -1,14 +1,13 @@
 package g0dkar.utils;
 
-import java.math.BigDecimal;
-import java.time.Instant;
-import java.time.format.DateTimeParseException;
-import java.time.temporal.TemporalQueries;
-import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
-import java.util.TimeZone;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
@@ -33,130 +32,224 @@ public class Configuration {
 	private final PersistenceService ps;
 	private final CacheService cs;
 	private final Environment env;
+	private final ConfigurationCache nearCache;
 	
 	/** @deprecated CDI */ @Deprecated
-	Configuration() { this(null, null, null, null); }
+	Configuration() { this(null, null, null, null, null); }
 	
 	@Inject
-	public Configuration(final PersistenceService ps, final CacheService cs, final Logger log, final Environment env) {
+	public Configuration(final PersistenceService ps, final CacheService cs, final Logger log, final Environment env, final ConfigurationCache nearCache) {
 		this.ps = ps;
 		this.cs = cs;
 		this.log = log;
 		this.env = env;
+		this.nearCache = nearCache;
 	}
 	
 	/**
-	 * Return something from the configurations map.
+	 * Return something from the configurations map. Values come from the application-wide {@link ConfigurationCache} and, on a miss, from
+	 * the {@code configuration} Infinispan cache, the {@link Environment} or the database (in that order).
 	 * 
 	 * @param name Configuration name
 	 * @return The configuration value or {@code null} if it doesn't exist
 	 */
 	public String get(final String name) {
-		final Cache<String, String> cache = cs.getCache("configuration");
+		return nearCache.get(name, this::load);
+	}
+	
+	/** Reads a configuration from the Infinispan cache or, on a miss, {@link #fetch(String) fetches} and caches it (recording both in its metrics) */
+	private String load(final String name) {
+		return cs.getOrLoad(ConfigurationCache.CACHE, name, this::fetch);
+	}
+	
+	/** Reads a configuration from the {@link Environment} or the database (skipping every cache) */
+	private String fetch(final String name) {
+		final String value = env.get(name);
 		
-		if (!cache.containsKey(name)) {
-			String value = env.get(name);
-			
-			if (value == null) {
-				final Query query = ps.createQuery("SELECT value FROM Configuration WHERE name = :name").setParameter("name", name);
-				query.setHint("org.hibernate.cacheable", false);
-				value = (String) query.getSingleResult();
-			}
+		if (value == null) {
+			final Query query = ps.createQuery("SELECT value FROM Configuration WHERE name = :name").setParameter("name", name);
+			query.setHint("org.hibernate.cacheable", false);
+			return (String) query.getSingleResult();
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * {@link #preload(String) Preloads} every configuration
+	 * 
+	 * @return How many configurations were loaded
+	 */
+	public int preload() {
+		return preload(null);
+	}
+	
+	/**
+	 * Loads every configuration whose name starts with {@code prefix} with a single query, filling both the {@code configuration}
+	 * Infinispan cache and the {@link ConfigurationCache}. Meant to be called at startup, so that the first requests don't each run their
+	 * own query. {@link Environment} values still take precedence over the database ones.
+	 * 
+	 * @param prefix Only configurations whose name starts with this ({@code null} or empty = all of them)
+	 * @return How many configurations were loaded
+	 */
+	@SuppressWarnings("unchecked")
+	public int preload(final String prefix) {
+		final long start = System.currentTimeMillis();
+		final Query query;
+		
+		if (prefix == null || prefix.isEmpty()) {
+			query = ps.createQuery("SELECT name, value FROM Configuration");
+		}
+		else {
+			query = ps.createQuery("SELECT name, value FROM Configuration WHERE name LIKE :prefix ESCAPE '!'").setParameter("prefix", prefix.replaceAll("[!%_]", "!$0") + "%");
+		}
+		query.setHint("org.hibernate.cacheable", false);
+		
+		final Map<String, String> values = new HashMap<>();
+		for (final Object[] row : (List<Object[]>) query.getResultList()) {
+			final String name = (String) row[0];
+			final String value = env.get(name);
 			
-			if (value != null) {
-				cache.put(name, value);
+			if (value != null || row[1] != null) {
+				values.put(name, value != null ? value : (String) row[1]);
 			}
-			
-			return value;
 		}
 		
-		return cache.get(name);
+		cs.getCache(ConfigurationCache.CACHE).putAll(values);
+		nearCache.putAll(values);
+		
+		if (log.isDebugEnabled()) { log.debug("Preloaded {} configurations in {}ms", values.size(), System.currentTimeMillis() - start); }
+		
+		return values.size();
+	}
+	
+	/**
+	 * Writes every configuration currently in the {@code configuration} Infinispan cache (i.e. everything resolved so far, usually after a
+	 * {@link #preload()}) to a {@link ConfigurationSnapshot snapshot} file, so nodes can start from it with
+	 * {@link ConfigurationCache#loadSnapshot(Path)}.
+	 * 
+	 * @param file The snapshot file
+	 * @return How many configurations were written
+	 * @throws IOException Writing the file
+	 */
+	public int writeSnapshot(final Path file) throws IOException {
+		final Map<String, String> configurations = new HashMap<>(cs.getCache(ConfigurationCache.CACHE));
+		ConfigurationSnapshot.write(file, configurations);
+		return configurations.size();
 	}
 	
 	/**
-	 * Get a config value.
+	 * Reloads a configuration (e.g. after it was changed in the database) into the {@code configuration} Infinispan cache, which in turn
+	 * updates every node's {@link ConfigurationCache} and notifies their {@link #subscribe(String, Consumer) subscribers}.
+	 * 
+	 * @param name Configuration name
+	 * @return Its current value or {@code null} if it doesn't exist anymore
+	 */
+	public String refresh(final String name) {
+		final Cache<String, String> cache = cs.getCache(ConfigurationCache.CACHE);
+		final String value = fetch(name);
+		
+		if (value != null) {
+			cache.put(name, value);
+		}
+		else {
+			cache.remove(name);
+		}
+		
+		nearCache.put(name, value);
+		return value;
+	}
+	
+	/**
+	 * Subscribes to a configuration: {@code listener} receives its current value right away and then every new value (asynchronously,
+	 * one at a time) whenever it changes, on any node. Good for keeping a value in a {@code volatile} field instead of reading it over and
+	 * over.
+	 * 
+	 * @param name Configuration name
+	 * @param listener Receives the values ({@code null} = it doesn't exist). Must not block.
+	 * @return The subscription ({@link ConfigurationCache.Subscription#close() close} it to stop receiving values)
+	 */
+	public ConfigurationCache.Subscription subscribe(final String name, final Consumer<String> listener) {
+		final ConfigurationCache.Subscription subscription = nearCache.subscribe(name, false, (configuration, value) -> listener.accept(value));
+		subscription.push(name, get(name));
+		return subscription;
+	}
+	
+	/**
+	 * Same as {@link #subscribe(String, Consumer)} but {@code listener} receives converted values
+	 * 
+	 * @param key The config handle
+	 * @param listener Receives the values (the key's default value if it doesn't exist or is invalid). Must not block.
+	 * @return The subscription ({@link ConfigurationCache.Subscription#close() close} it to stop receiving values)
+	 */
+	public <T> ConfigurationCache.Subscription subscribe(final ConfigKey<T> key, final Consumer<? super T> listener) {
+		return subscribe(key.getName(), value -> listener.accept(key.convert(value)));
+	}
+	
+	/**
+	 * Subscribes to every configuration whose name starts with {@code prefix}. Unlike {@link #subscribe(String, Consumer)} current values
+	 * aren't pushed: only changes are.
+	 * 
+	 * @param prefix Configuration name prefix
+	 * @param listener Receives the configuration name and its new value ({@code null} = it was removed). Must not block.
+	 * @return The subscription ({@link ConfigurationCache.Subscription#close() close} it to stop receiving changes)
+	 */
+	public ConfigurationCache.Subscription subscribePrefix(final String prefix, final BiConsumer<String, String> listener) {
+		return nearCache.subscribe(prefix, true, listener);
+	}
+	
+	/**
+	 * Same as {@link #subscribePrefix(String, BiConsumer)}, but "changes" to the values the listener already has aren't delivered (the
+	 * {@code configuration} cache reports every write: expired entries put again, other nodes loading them, snapshots...)
+	 * 
+	 * @param prefix Configuration name prefix
+	 * @param current The values the listener already has, by configuration name ({@code null} = doesn't exist)
+	 * @param listener Receives the configuration name and its new value ({@code null} = it was removed). Must not block.
+	 * @return The subscription ({@link ConfigurationCache.Subscription#close() close} it to stop receiving changes)
+	 */
+	public ConfigurationCache.Subscription subscribePrefix(final String prefix, final Map<String, String> current, final BiConsumer<String, String> listener) {
+		return nearCache.subscribe(prefix, true, current, listener);
+	}
+	
+	/**
+	 * Get a typed config value. The converted value is cached by the {@link ConfigKey} itself, so prefer this to
+	 * {@link #get(String, Object)} on hot paths.
+	 * 
+	 * @param key The config handle
+	 * @return {@link #get(String) The value} converted or the key's {@link ConfigKey#getDefaultValue() default value}
+	 */
+	public <T> T get(final ConfigKey<T> key) {
+		return key.get(this);
+	}
+	
+	/**
+	 * Get a config value, converted to {@code defaultValue}'s type by its {@link ConfigConverters converter}.
 	 * 
 	 * @param path The config path
 	 * @param defaultValue Default stuff to return if not found or {@code null}
 	 * @return {@link #get(String) The value} or {@code defaultValue}.
 	 */
+	@SuppressWarnings("unchecked")
 	public <T> T get(final String path, final T defaultValue) {
 		try {
 			final String value = get(path);
 			
 			if (value != null) {
-				Object result = null;
+				final Function<String, ?> converter = ConfigConverters.get(defaultValue.getClass());
 				
-				if (defaultValue instanceof String) {
-					result = value;
-				}
-				else if (defaultValue instanceof String[]) {
-					result = value.split("\\s*,\\s*");
-				}
-				else if (defaultValue instanceof List) {
-					result = Arrays.asList(value.split("\\s*,\\s*"));
-				}
-				else if (defaultValue instanceof Boolean) {
-					result = value != null ? StringUtils.parseBoolean(value) : null;
-				}
-				else if (defaultValue instanceof Integer) {
-					try {
-						result = Integer.parseInt(value, 10);
-					} catch (final NumberFormatException nfe) {
-						if (log.isDebugEnabled()) { log.debug("Error converting to config " + path + " to Integer", nfe); }
-						result = null;
-					}
-				}
-				else if (defaultValue instanceof Long) {
-					try {
-						result = Long.parseLong(value, 10);
-					} catch (final NumberFormatException nfe) {
-						if (log.isDebugEnabled()) { log.debug("Error converting to config " + path + " to Long", nfe); }
-						result = null;
-					}
-				}
-				else if (defaultValue instanceof Double) {
-					try {
-						result = Double.parseDouble(value);
-					} catch (final NumberFormatException nfe) {
-						if (log.isDebugEnabled()) { log.debug("Error converting to config " + path + " to Double", nfe); }
-						result = null;
-					}
-				}
-				else if (defaultValue instanceof BigDecimal) {
-					try {
-						result = new BigDecimal(value);
-					} catch (final NumberFormatException nfe) {
-						if (log.isDebugEnabled()) { log.debug("Error converting to config " + path + " to BigDecimal", nfe); }
-						result = null;
-					}
-				}
-				else if (defaultValue instanceof Date) {
-					try {
-						result = new Date(Instant.parse(value).toEpochMilli());
-					} catch (final DateTimeParseException dtpe) {
-						if (log.isDebugEnabled()) { log.debug("Error converting to config " + path + " to Date", dtpe); }
-						result = null;
-					}
-				}
-				else if (defaultValue instanceof Calendar) {
-					try {
-						final Instant instant = Instant.parse(value);
-						final Calendar calendar = Calendar.getInstance();
-						calendar.setTimeInMillis(instant.toEpochMilli());
-						calendar.setTimeZone(TimeZone.getTimeZone(instant.query(TemporalQueries.zoneId())));
-						
-						result = calendar;
-					} catch (final DateTimeParseException pe) {
-						if (log.isDebugEnabled()) { log.debug("Error converting to config " + path + " to Calendar", pe); }
-						result = null;
-					}
-				}
-				else {
+				if (converter == null) {
 					if (log.isDebugEnabled()) { log.debug("UnsupportedType: {} (returning defaultValue)", defaultValue.getClass().getName()); }
 					return defaultValue;
 				}
 				
+				Object result;
+				try {
+					result = converter.apply(value);
+				} catch (final RuntimeException re) {
+					if (log.isDebugEnabled()) { log.debug("Error converting to config " + path + " to " + defaultValue.getClass().getSimpleName(), re); }
+					result = null;
+				}
+				
 				return result != null ? (T) result : defaultValue;
 			}
 			else {
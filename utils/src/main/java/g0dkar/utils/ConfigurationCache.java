@@ -0,0 +1,347 @@
+package g0dkar.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.infinispan.Cache;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryExpired;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntryEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import g0dkar.utils.cache.CacheRef;
+import g0dkar.utils.cache.CacheService;
+import g0dkar.utils.cache.NearCache;
+
+/**
+ * <p>Application-wide near-cache of {@link Configuration} values, in front of the {@code configuration} Infinispan cache (and the database). A
+ * hit costs a map lookup, configurations that don't exist are remembered for a while ({@link #NEGATIVE_TTL}) and concurrent misses for the
+ * same configuration load it only once.</p>
+ * 
+ * <p>It listens to the {@code configuration} Infinispan cache: whenever an entry is created or changed there (on this node or, for
+ * clustered caches, on any other) that value replaces the cached one, and removed/expired/invalidated entries are forgotten. Only the
+ * changed keys are touched.</p>
+ * 
+ * <p>Those changes are also pushed to whoever {@link #subscribe(String, boolean, BiConsumer) subscribed} to them (see
+ * {@link Configuration#subscribe(String, java.util.function.Consumer)}).</p>
+ * 
+ * <p>A {@link #loadSnapshot(Path) snapshot} can be loaded at startup, before the database is reachable: its values are served right away
+ * and revalidated (loaded again the usual way) as they expire. While loading fails (e.g. the database is still down) the snapshot value
+ * keeps being used.</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+@ApplicationScoped
+public class ConfigurationCache {
+	/** The {@code configuration} Infinispan cache (see {@link #loadSnapshot(Path)} for keeping configurations across restarts) */
+	public static final CacheRef<String, String> CACHE = CacheRef.of("configuration", String.class, String.class);
+	/** How long (ms) a configuration value is kept before being looked up again */
+	public static final long TTL = 60_000;
+	/** How long (ms) "this configuration doesn't exist" is kept before being looked up again */
+	public static final long NEGATIVE_TTL = 30_000;
+	
+	private static final Logger log = LoggerFactory.getLogger(ConfigurationCache.class);
+	
+	private final NearCache<String, String> values = new NearCache<>(TTL, NEGATIVE_TTL);
+	private final ChangeListener listener = new ChangeListener(this);
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final CacheService cs;
+	private volatile Map<String, String> snapshot = Collections.emptyMap();
+	private Cache<String, String> cache;
+	
+	/** @deprecated CDI */ @Deprecated
+	ConfigurationCache() { this(null); }
+	
+	@Inject
+	public ConfigurationCache(final CacheService cs) {
+		this.cs = cs;
+	}
+	
+	/**
+	 * Starts listening to the {@code configuration} Infinispan cache and reports this near-cache as the {@code l1} of its
+	 * {@link CacheService#getMetrics(String) metrics} (CDI calls it; outside a container, call it after creating this)
+	 */
+	@PostConstruct
+	public void listen() {
+		if (cs != null) {
+			cache = cs.getCache(CACHE);
+			cache.addListener(listener);
+			cs.getLoadingCache(CACHE).getMetrics().setL1(values.getStats(), values::size, () -> 0);
+		}
+	}
+	
+	/** Stops listening to the {@code configuration} Infinispan cache */
+	@PreDestroy
+	public void stopListening() {
+		if (cache != null) {
+			cache.removeListener(listener);
+		}
+	}
+	
+	/**
+	 * @param name Configuration name
+	 * @param loader Loads the value on a miss (may return {@code null})
+	 * @return The configuration value or {@code null} if it doesn't exist
+	 */
+	public String get(final String name, final Function<String, String> loader) {
+		return values.get(name, snapshot.isEmpty() ? loader : key -> loadOrSnapshot(key, loader));
+	}
+	
+	private String loadOrSnapshot(final String name, final Function<String, String> loader) {
+		try {
+			return loader.apply(name);
+		} catch (final RuntimeException e) {
+			final String value = snapshot.get(name);
+			
+			if (value == null) {
+				throw e;
+			}
+			
+			if (log.isDebugEnabled()) { log.debug("Couldn't load config " + name + ", using the snapshot's value", e); }
+			return value;
+		}
+	}
+	
+	/**
+	 * Loads a snapshot (written by {@link Configuration#writeSnapshot(Path)}). Its values are cached right away (with the usual
+	 * {@link #TTL}) and used as fallback whenever loading a configuration fails.
+	 * 
+	 * @param file The snapshot file
+	 * @return How many configurations it had
+	 * @throws IOException Reading the file or it isn't a valid snapshot
+	 */
+	public int loadSnapshot(final Path file) throws IOException {
+		final Map<String, String> configurations = ConfigurationSnapshot.read(file);
+		putAll(configurations);
+		snapshot = configurations;
+		return configurations.size();
+	}
+	
+	/** Stops using the {@link #loadSnapshot(Path) snapshot} as fallback */
+	public void discardSnapshot() {
+		snapshot = Collections.emptyMap();
+	}
+	
+	/**
+	 * Sets a value, replacing whatever was cached
+	 * @param name Configuration name
+	 * @param value Configuration value ({@code null} = doesn't exist)
+	 */
+	public void put(final String name, final String value) {
+		values.put(name, value);
+	}
+	
+	/**
+	 * Sets many values at once (see {@link #put(String, String)})
+	 * @param configurations Configuration names and values
+	 */
+	public void putAll(final Map<String, String> configurations) {
+		for (final Map.Entry<String, String> configuration : configurations.entrySet()) {
+			values.put(configuration.getKey(), configuration.getValue());
+		}
+	}
+	
+	/** @param name Configuration to be looked up again next time */
+	public void invalidate(final String name) {
+		values.invalidate(name);
+	}
+	
+	/** Every configuration will be looked up again */
+	public void invalidateAll() {
+		values.invalidateAll();
+	}
+	
+	/**
+	 * Subscribes to changes of a configuration (or of every configuration whose name starts with {@code name}). Changes are pushed
+	 * asynchronously, in the order they happened, and only if the value is different from the last one pushed to that subscription.
+	 * 
+	 * @param name Configuration name (or prefix)
+	 * @param prefix Is {@code name} a prefix?
+	 * @param listener Receives the configuration name and its new value ({@code null} = it was removed). Must not block.
+	 * @return The subscription ({@link Subscription#close() close} it to stop receiving changes)
+	 */
+	public Subscription subscribe(final String name, final boolean prefix, final BiConsumer<String, String> listener) {
+		return subscribe(name, prefix, Collections.emptyMap(), listener);
+	}
+	
+	/**
+	 * Same as {@link #subscribe(String, boolean, BiConsumer)}, but changes to the values the listener already knows are skipped too (e.g.
+	 * the re-put of an expired entry or another node loading it)
+	 * 
+	 * @param name Configuration name (or prefix)
+	 * @param prefix Is {@code name} a prefix?
+	 * @param current The values the listener already has, by configuration name ({@code null} = doesn't exist)
+	 * @param listener Receives the configuration name and its new value ({@code null} = it was removed). Must not block.
+	 * @return The subscription ({@link Subscription#close() close} it to stop receiving changes)
+	 */
+	public Subscription subscribe(final String name, final boolean prefix, final Map<String, String> current, final BiConsumer<String, String> listener) {
+		final Subscription subscription = new Subscription(name, prefix, current, listener);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+	
+	/** A configuration changed (or was removed, if {@code value} is {@code null}) */
+	void changed(final String name, final String value) {
+		if (value != null) {
+			values.put(name, value);
+		}
+		else {
+			values.invalidate(name);
+		}
+		
+		for (final Subscription subscription : subscriptions) {
+			if (subscription.matches(name)) {
+				subscription.push(name, value);
+			}
+		}
+	}
+	
+	/**
+	 * A subscription to configuration changes. Changes are delivered one at a time (never concurrently) on the
+	 * {@link ForkJoinPool#commonPool() common pool}.
+	 * 
+	 * @author Rafael Lins
+	 *
+	 */
+	public class Subscription implements AutoCloseable {
+		private final String name;
+		private final boolean prefix;
+		private final BiConsumer<String, String> listener;
+		private final Executor executor = ForkJoinPool.commonPool();
+		private final Queue<String[]> pending = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		/**
+		 * Last value delivered for each name (only touched while draining, which is never concurrent). A name that's not in here was never
+		 * delivered, so its first value is, even if it's {@code null}.
+		 */
+		private final Map<String, String> delivered = new HashMap<>();
+		private volatile boolean closed;
+		
+		Subscription(final String name, final boolean prefix, final Map<String, String> current, final BiConsumer<String, String> listener) {
+			this.name = name;
+			this.prefix = prefix;
+			this.listener = listener;
+			this.delivered.putAll(current);
+		}
+		
+		boolean matches(final String configuration) {
+			return prefix ? configuration.startsWith(name) : configuration.equals(name);
+		}
+		
+		/**
+		 * Queues a change to be delivered
+		 * 
+		 * @param configuration Configuration name
+		 * @param value Its value ({@code null} = removed)
+		 */
+		public void push(final String configuration, final String value) {
+			if (!closed) {
+				pending.add(new String[] { configuration, value });
+				schedule();
+			}
+		}
+		
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				executor.execute(this::drain);
+			}
+		}
+		
+		private void drain() {
+			String[] change;
+			
+			while (!closed && (change = pending.poll()) != null) {
+				if (!delivered.containsKey(change[0]) || !Objects.equals(delivered.get(change[0]), change[1])) {
+					delivered.put(change[0], change[1]);
+					
+					try {
+						listener.accept(change[0], change[1]);
+					} catch (final RuntimeException e) {
+						log.warn("Configuration listener for " + change[0] + " failed", e);
+					}
+				}
+			}
+			
+			scheduled.set(false);
+			
+			if (!closed && !pending.isEmpty()) {
+				schedule();
+			}
+		}
+		
+		/** Stops receiving changes (pending ones are dropped) */
+		@Override
+		public void close() {
+			closed = true;
+			subscriptions.remove(this);
+			pending.clear();
+		}
+		
+		@Override
+		public String toString() {
+			return "Subscription[" + name + (prefix ? "*" : "") + "]";
+		}
+	}
+	
+	/**
+	 * Keeps the near-cache in sync with the {@code configuration} Infinispan cache (Infinispan requires listeners to be public). Observes
+	 * "pre" events too because Infinispan only sends those for invalidations.
+	 * 
+	 * @author Rafael Lins
+	 *
+	 */
+	@Listener(observation = Listener.Observation.BOTH)
+	public static class ChangeListener {
+		private final ConfigurationCache cache;
+		
+		ChangeListener(final ConfigurationCache cache) {
+			this.cache = cache;
+		}
+		
+		@CacheEntryCreated
+		@CacheEntryModified
+		public void changed(final CacheEntryEvent<String, String> event) {
+			if (!event.isPre()) {
+				cache.changed(event.getKey(), event.getValue());
+			}
+		}
+		
+		@CacheEntryRemoved
+		public void removed(final CacheEntryEvent<String, String> event) {
+			if (!event.isPre()) {
+				cache.changed(event.getKey(), null);
+			}
+		}
+		
+		/** Expired/invalidated doesn't mean it changed: it just has to be looked up again */
+		@CacheEntryExpired
+		@CacheEntryInvalidated
+		public void forgotten(final CacheEntryEvent<String, String> event) {
+			cache.invalidate(event.getKey());
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package g0dkar.utils;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Reads and writes snapshots of resolved configurations: a small binary file a node can read at startup, before the database is
+ * reachable (see {@link Configuration#writeSnapshot(Path)} and {@link ConfigurationCache#loadSnapshot(Path)}).</p>
+ * 
+ * <p>Format (big endian): {@code "CFG1"}, the snapshot time (epoch millis, {@code long}), how many entries ({@code int}) and then, for
+ * each entry, its name and value as UTF-8 bytes prefixed by their length ({@code int}).</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public final class ConfigurationSnapshot {
+	private static final int MAGIC = 0x43464731; // CFG1
+	
+	private ConfigurationSnapshot() {}
+	
+	/**
+	 * Writes a snapshot. The file is replaced atomically (written to a temporary file first and then moved), so a node starting
+	 * concurrently never reads half a snapshot.
+	 * 
+	 * @param file The file
+	 * @param configurations Configuration names and values ({@code null} values are skipped)
+	 * @throws IOException Writing the file
+	 */
+	public static void write(final Path file, final Map<String, String> configurations) throws IOException {
+		final List<byte[]> encoded = new ArrayList<>(configurations.size() * 2); // name, value, name, value...
+		int size = 16;
+		
+		for (final Map.Entry<String, String> configuration : configurations.entrySet()) {
+			if (configuration.getValue() != null) {
+				final byte[] name = configuration.getKey().getBytes(StandardCharsets.UTF_8);
+				final byte[] value = configuration.getValue().getBytes(StandardCharsets.UTF_8);
+				encoded.add(name);
+				encoded.add(value);
+				size += 8 + name.length + value.length;
+			}
+		}
+		
+		final ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(MAGIC).putLong(System.currentTimeMillis()).putInt(encoded.size() / 2);
+		
+		for (final byte[] bytes : encoded) {
+			buffer.putInt(bytes.length).put(bytes);
+		}
+		
+		buffer.flip();
+		
+		final Path parent = file.toAbsolutePath().getParent();
+		final Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(true);
+			}
+			
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * Reads a snapshot ({@link FileChannel#map(FileChannel.MapMode, long, long) memory mapped})
+	 * 
+	 * @param file The file
+	 * @return Configuration names and values
+	 * @throws IOException Reading the file or it isn't a (complete) snapshot
+	 */
+	public static Map<String, String> read(final Path file) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			try {
+				if (buffer.getInt() != MAGIC) {
+					throw new IOException(file + " is not a configuration snapshot");
+				}
+				
+				buffer.getLong(); // snapshot time
+				final int count = buffer.getInt();
+				final Map<String, String> configurations = new HashMap<>(count * 4 / 3 + 1);
+				
+				for (int i = 0; i < count; i++) {
+					final String name = string(buffer);
+					configurations.put(name, string(buffer));
+				}
+				
+				return configurations;
+			} catch (final BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+				throw new IOException(file + " is truncated or corrupted", e);
+			}
+		}
+	}
+	
+	private static String string(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
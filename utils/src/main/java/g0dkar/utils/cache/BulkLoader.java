@@ -0,0 +1,21 @@
+package g0dkar.utils.cache;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads many values at once (one query, one remote call...) for {@link LoadingCache#getAll(java.util.Collection, BulkLoader)}
+ * 
+ * @author Rafael Lins
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+@FunctionalInterface
+public interface BulkLoader<K, V> {
+	/**
+	 * @param keys Keys that weren't found in the cache (never empty)
+	 * @return The values found, by key. Keys without a value may be left out (or mapped to {@code null}).
+	 */
+	Map<K, V> loadAll(Set<K> keys);
+}
@@ -0,0 +1,27 @@
+package g0dkar.utils.cache;
+
+import org.infinispan.manager.EmbeddedCacheManager;
+
+/**
+ * <p>Where {@link CacheService} gets its caches from. Two backends are available:</p>
+ * 
+ * <ul>
+ * <li>{@link ContainerCacheBackend}: the application server's cache container (bound at {@value ContainerCacheBackend#JNDI_NAME}),
+ * clustered or not, as configured there
+ * <li>{@link StandaloneCacheBackend}: an in-process, local-only cache manager (bounded and expiring), for batch jobs, benchmarks and tests
+ * running outside the application server
+ * </ul>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public interface CacheBackend extends AutoCloseable {
+	/** @return The cache manager every cache comes from */
+	EmbeddedCacheManager getManager();
+	
+	/** Releases whatever this backend started (by default, nothing) */
+	@Override
+	default void close() {
+		// Nothing to release
+	}
+}
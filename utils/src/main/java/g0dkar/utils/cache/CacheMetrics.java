@@ -0,0 +1,296 @@
+package g0dkar.utils.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
+import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+
+/**
+ * <p>Metrics of a single cache: lookups (hits/misses and their latency), loads (count, failures and latency), evictions and size, plus
+ * the numbers of the in-process tier in front of it, if there's one ({@link TwoLevelCache}'s L1 or a {@link NearCache}).</p>
+ * 
+ * <p>Lookups and loads are recorded by {@link LoadingCache} (i.e. {@link CacheService#getOrLoad(CacheRef, Object, java.util.function.Function)
+ * getOrLoad}, {@link CacheService#getAll(CacheRef, java.util.Collection, BulkLoader) getAll} and {@link TwoLevelCache} reads that miss
+ * L1), evictions by an Infinispan listener.
+ * Get them from {@link CacheService#getMetrics(String)}, read them through JMX or as a {@link #snapshot() snapshot}.</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class CacheMetrics implements CacheMetricsMXBean {
+	private final String name;
+	private final CacheStats lookups = new CacheStats();
+	private final LatencyHistogram lookupLatency = new LatencyHistogram();
+	private final LatencyHistogram loadLatency = new LatencyHistogram();
+	private final LongAdder loadFailures = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final EvictionListener evictionListener = new EvictionListener(this);
+	private volatile LongSupplier size = () -> -1;
+	private volatile LongSupplier memoryUsed = () -> -1;
+	private volatile LongSupplier memoryBudget = () -> -1;
+	private volatile CacheStats l1Stats;
+	private volatile LongSupplier l1Size = () -> 0;
+	private volatile LongSupplier l1Evictions = () -> 0;
+	
+	public CacheMetrics(final String name) {
+		this.name = name;
+	}
+	
+	/** @param nanos How long the lookup took */
+	public void hit(final long nanos) {
+		lookups.hit();
+		lookupLatency.record(nanos);
+	}
+	
+	/** @param nanos How long the lookup took */
+	public void miss(final long nanos) {
+		lookups.miss();
+		lookupLatency.record(nanos);
+	}
+	
+	/**
+	 * A bulk lookup
+	 * 
+	 * @param hits How many keys were found
+	 * @param misses How many weren't
+	 * @param nanos How long the whole lookup took
+	 */
+	public void lookup(final long hits, final long misses, final long nanos) {
+		lookups.add(hits, misses);
+		lookupLatency.record(nanos);
+	}
+	
+	/** @param nanos How long the load took */
+	public void loaded(final long nanos) {
+		loadLatency.record(nanos);
+	}
+	
+	/** @param nanos How long the (failed) load took */
+	public void loadFailed(final long nanos) {
+		loadFailures.increment();
+		loadLatency.record(nanos);
+	}
+	
+	/** @param count How many entries were evicted */
+	public void evicted(final long count) {
+		evictions.add(count);
+	}
+	
+	void setSize(final LongSupplier size) {
+		this.size = size;
+	}
+	
+	void setMemory(final LongSupplier used, final LongSupplier budget) {
+		this.memoryUsed = used;
+		this.memoryBudget = budget;
+	}
+	
+	void setTwoLevelCache(final TwoLevelCache<?, ?> twoLevelCache) {
+		setL1(twoLevelCache.getL1Stats(), twoLevelCache::getL1Size, twoLevelCache::getL1Evictions);
+	}
+	
+	/**
+	 * Sets up the in-process tier in front of the cache (reported as {@code l1})
+	 * 
+	 * @param stats Its hits and misses
+	 * @param size How many entries it has
+	 * @param evictions How many entries it evicted
+	 */
+	public void setL1(final CacheStats stats, final LongSupplier size, final LongSupplier evictions) {
+		this.l1Size = size;
+		this.l1Evictions = evictions;
+		this.l1Stats = stats;
+	}
+	
+	EvictionListener getEvictionListener() {
+		return evictionListener;
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	@Override
+	public long getHits() {
+		return lookups.getHits();
+	}
+	
+	@Override
+	public long getMisses() {
+		return lookups.getMisses();
+	}
+	
+	@Override
+	public double getHitRatio() {
+		return lookups.getHitRatio();
+	}
+	
+	@Override
+	public long getLoads() {
+		return loadLatency.getCount();
+	}
+	
+	@Override
+	public long getLoadFailures() {
+		return loadFailures.sum();
+	}
+	
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+	
+	@Override
+	public long getSize() {
+		return size.getAsLong();
+	}
+	
+	@Override
+	public long getMemoryUsed() {
+		return memoryUsed.getAsLong();
+	}
+	
+	@Override
+	public long getMemoryBudget() {
+		return memoryBudget.getAsLong();
+	}
+	
+	public LatencyHistogram getLookupLatency() {
+		return lookupLatency;
+	}
+	
+	public LatencyHistogram getLoadLatency() {
+		return loadLatency;
+	}
+	
+	@Override
+	public double getLookupLatencyP50() {
+		return LatencyHistogram.micros(lookupLatency.getPercentile(50));
+	}
+	
+	@Override
+	public double getLookupLatencyP99() {
+		return LatencyHistogram.micros(lookupLatency.getPercentile(99));
+	}
+	
+	@Override
+	public double getLoadLatencyP50() {
+		return LatencyHistogram.micros(loadLatency.getPercentile(50));
+	}
+	
+	@Override
+	public double getLoadLatencyP99() {
+		return LatencyHistogram.micros(loadLatency.getPercentile(99));
+	}
+	
+	@Override
+	public double getLoadLatencyMax() {
+		return LatencyHistogram.micros(loadLatency.getMax());
+	}
+	
+	@Override
+	public long getL1Hits() {
+		final CacheStats stats = l1Stats;
+		return stats != null ? stats.getHits() : 0;
+	}
+	
+	@Override
+	public long getL1Misses() {
+		final CacheStats stats = l1Stats;
+		return stats != null ? stats.getMisses() : 0;
+	}
+	
+	@Override
+	public long getL1Size() {
+		return l1Size.getAsLong();
+	}
+	
+	@Override
+	public long getL1Evictions() {
+		return l1Evictions.getAsLong();
+	}
+	
+	@Override
+	public void reset() {
+		lookups.reset();
+		lookupLatency.reset();
+		loadLatency.reset();
+		loadFailures.reset();
+		evictions.reset();
+	}
+	
+	/** @return Every metric, by name (latencies in microseconds), ready to be turned into Json */
+	public Map<String, Object> snapshot() {
+		final Map<String, Object> snapshot = new LinkedHashMap<>();
+		snapshot.put("hits", getHits());
+		snapshot.put("misses", getMisses());
+		snapshot.put("hit_ratio", getHitRatio());
+		snapshot.put("loads", getLoads());
+		snapshot.put("load_failures", getLoadFailures());
+		snapshot.put("evictions", getEvictions());
+		snapshot.put("size", getSize());
+		
+		if (getMemoryBudget() > 0) {
+			snapshot.put("memory_used", getMemoryUsed());
+			snapshot.put("memory_budget", getMemoryBudget());
+		}
+		
+		snapshot.put("lookup_latency", latency(lookupLatency));
+		snapshot.put("load_latency", latency(loadLatency));
+		
+		final CacheStats stats = l1Stats;
+		if (stats != null) {
+			final Map<String, Object> l1 = new LinkedHashMap<>();
+			l1.put("hits", stats.getHits());
+			l1.put("misses", stats.getMisses());
+			l1.put("hit_ratio", stats.getHitRatio());
+			l1.put("size", getL1Size());
+			l1.put("evictions", getL1Evictions());
+			snapshot.put("l1", l1);
+		}
+		
+		return snapshot;
+	}
+	
+	private static Map<String, Object> latency(final LatencyHistogram histogram) {
+		final Map<String, Object> latency = new LinkedHashMap<>();
+		latency.put("count", histogram.getCount());
+		latency.put("mean", LatencyHistogram.micros(histogram.getMean()));
+		latency.put("p50", LatencyHistogram.micros(histogram.getPercentile(50)));
+		latency.put("p90", LatencyHistogram.micros(histogram.getPercentile(90)));
+		latency.put("p99", LatencyHistogram.micros(histogram.getPercentile(99)));
+		latency.put("p999", LatencyHistogram.micros(histogram.getPercentile(99.9)));
+		latency.put("max", LatencyHistogram.micros(histogram.getMax()));
+		return latency;
+	}
+	
+	@Override
+	public String toString() {
+		return name + ": " + lookups + ", lookups " + lookupLatency + ", loads " + loadLatency + ", " + getEvictions() + " evictions";
+	}
+	
+	/**
+	 * Counts Infinispan evictions (Infinispan requires listeners to be public)
+	 * 
+	 * @author Rafael Lins
+	 *
+	 */
+	@Listener
+	public static class EvictionListener {
+		private final CacheMetrics metrics;
+		
+		EvictionListener(final CacheMetrics metrics) {
+			this.metrics = metrics;
+		}
+		
+		@CacheEntriesEvicted
+		public void evicted(final CacheEntriesEvictedEvent<?, ?> event) {
+			metrics.evicted(event.getEntries().size());
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package g0dkar.utils.cache;
+
+/**
+ * JMX view of a cache's {@link CacheMetrics} (registered by {@link CacheService} as {@code g0dkar.utils:type=Cache,name=<cache name>}).
+ * Latencies are in microseconds.
+ * 
+ * @author Rafael Lins
+ *
+ */
+public interface CacheMetricsMXBean {
+	String getName();
+	
+	long getHits();
+	
+	long getMisses();
+	
+	double getHitRatio();
+	
+	long getLoads();
+	
+	long getLoadFailures();
+	
+	long getEvictions();
+	
+	long getSize();
+	
+	/** @return Bytes taken by the entries of a cache bounded by memory (e.g. off-heap), {@code -1} for other caches */
+	long getMemoryUsed();
+	
+	/** @return Memory budget (bytes) of a cache bounded by memory, {@code -1} for other caches */
+	long getMemoryBudget();
+	
+	double getLookupLatencyP50();
+	
+	double getLookupLatencyP99();
+	
+	double getLoadLatencyP50();
+	
+	double getLoadLatencyP99();
+	
+	double getLoadLatencyMax();
+	
+	long getL1Hits();
+	
+	long getL1Misses();
+	
+	long getL1Size();
+	
+	long getL1Evictions();
+	
+	void reset();
+}
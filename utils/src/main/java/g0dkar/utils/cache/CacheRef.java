@@ -0,0 +1,317 @@
+package g0dkar.utils.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.cache.StorageType;
+import org.infinispan.eviction.EvictionType;
+
+/**
+ * <p>A typed reference to a cache, declared once (as a {@code static final} field) together with its configuration:</p>
+ * 
+ * <pre>
+ * public static final CacheRef&lt;String, UserRepresentation&gt; USERS = CacheRef.of("users", String.class, UserRepresentation.class)
+ * 		.lifespan(30, TimeUnit.MINUTES)
+ * 		.maxEntries(10_000);
+ * ...
+ * final Cache&lt;String, UserRepresentation&gt; users = cacheService.getCache(USERS);
+ * </pre>
+ * 
+ * <p>{@link CacheService#getCache(CacheRef)} resolves it only once and keeps the {@link org.infinispan.Cache Cache} handle. If the cache
+ * manager has no configuration of its own for that cache name (e.g. from the application server), the one declared here is defined
+ * (on top of the manager's default configuration) before the cache is first created.</p>
+ * 
+ * <p>Immutable: each configuration method returns a new reference.</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public final class CacheRef<K, V> {
+	private final String name;
+	private final Class<K> keyType;
+	private final Class<V> valueType;
+	private long lifespan = -1;
+	private long maxIdle = -1;
+	private long maxEntries = -1;
+	private long maxBytes = -1;
+	private long l1MaxEntries = CacheService.DEFAULT_L1_MAX_ENTRIES;
+	private long l1Ttl = CacheService.DEFAULT_L1_TTL;
+	private long negativeTtl = -1;
+	private double refreshAhead = -1;
+	private int codecId = -1;
+	private Codec<V> codec;
+	private long warmRestartMaxAge = -1;
+	
+	private CacheRef(final String name, final Class<K> keyType, final Class<V> valueType) {
+		this.name = name;
+		this.keyType = keyType;
+		this.valueType = valueType;
+	}
+	
+	/** @return A copy to be changed by the configuration methods (which is never changed again afterwards) */
+	private CacheRef<K, V> copy() {
+		final CacheRef<K, V> copy = new CacheRef<>(name, keyType, valueType);
+		copy.lifespan = lifespan;
+		copy.maxIdle = maxIdle;
+		copy.maxEntries = maxEntries;
+		copy.maxBytes = maxBytes;
+		copy.l1MaxEntries = l1MaxEntries;
+		copy.l1Ttl = l1Ttl;
+		copy.negativeTtl = negativeTtl;
+		copy.refreshAhead = refreshAhead;
+		copy.codecId = codecId;
+		copy.codec = codec;
+		copy.warmRestartMaxAge = warmRestartMaxAge;
+		return copy;
+	}
+	
+	/**
+	 * @param name Cache name
+	 * @param keyType Key type
+	 * @param valueType Value type
+	 * @return A reference with no configuration of its own (entries never expire and the cache is unbounded, unless the cache manager
+	 *         says otherwise)
+	 */
+	public static <K, V> CacheRef<K, V> of(final String name, final Class<K> keyType, final Class<V> valueType) {
+		return new CacheRef<>(name, keyType, valueType);
+	}
+	
+	/**
+	 * @param duration How long entries live after being written
+	 * @param unit {@code duration}'s unit
+	 * @return A new reference with that lifespan
+	 */
+	public CacheRef<K, V> lifespan(final long duration, final TimeUnit unit) {
+		final CacheRef<K, V> copy = copy();
+		copy.lifespan = unit.toMillis(duration);
+		return copy;
+	}
+	
+	/**
+	 * @param duration How long entries live after being last read
+	 * @param unit {@code duration}'s unit
+	 * @return A new reference with that max idle time
+	 */
+	public CacheRef<K, V> maxIdle(final long duration, final TimeUnit unit) {
+		final CacheRef<K, V> copy = copy();
+		copy.maxIdle = unit.toMillis(duration);
+		return copy;
+	}
+	
+	/**
+	 * @param maxEntries How many entries the cache keeps (entries are evicted beyond that)
+	 * @return A new reference with that bound
+	 */
+	public CacheRef<K, V> maxEntries(final long maxEntries) {
+		final CacheRef<K, V> copy = copy();
+		copy.maxEntries = maxEntries;
+		return copy;
+	}
+	
+	/**
+	 * <p>Keeps the cache's entries off the heap (serialized, in native memory), bounded by their size in bytes instead of how many there
+	 * are: big caches don't make the heap (and GC pauses) any bigger. Replaces {@link #maxEntries(long) maxEntries}.</p>
+	 * 
+	 * <p>Values must be serializable by the cache manager (Strings, {@code byte[]}, {@link java.io.Serializable}s) or the reference must
+	 * have a {@link #codec(int, Codec) codec}. Every read deserializes the value, so put a {@link CacheService#getTwoLevelCache(CacheRef)
+	 * two-level cache} in front of hot keys.</p>
+	 * 
+	 * @param maxBytes How much native memory the entries may take (least recently used ones are evicted beyond that)
+	 * @return A new reference stored off-heap
+	 */
+	public CacheRef<K, V> offHeap(final long maxBytes) {
+		final CacheRef<K, V> copy = copy();
+		copy.maxBytes = maxBytes;
+		return copy;
+	}
+	
+	/**
+	 * Sets up the L1 tier used by {@link CacheService#getTwoLevelCache(CacheRef)}
+	 * 
+	 * @param maxEntries How many entries L1 keeps
+	 * @param ttl How long L1 entries live (keep it short: it's how stale L1 may be, at worst)
+	 * @param unit {@code ttl}'s unit
+	 * @return A new reference with that L1 configuration
+	 */
+	public CacheRef<K, V> l1(final long maxEntries, final long ttl, final TimeUnit unit) {
+		final CacheRef<K, V> copy = copy();
+		copy.l1MaxEntries = maxEntries;
+		copy.l1Ttl = unit.toMillis(ttl);
+		return copy;
+	}
+	
+	/**
+	 * How long {@link CacheService#getOrLoad(CacheRef, Object, java.util.function.Function) getOrLoad} remembers that the loader found
+	 * nothing for a key (so it isn't called again for it meanwhile). Negative entries are kept on each node, not in Infinispan.
+	 * 
+	 * @param duration How long "there's no such value" lives ({@code 0} disables negative caching, the default)
+	 * @param unit {@code duration}'s unit
+	 * @return A new reference with that negative TTL
+	 */
+	public CacheRef<K, V> negativeTtl(final long duration, final TimeUnit unit) {
+		final CacheRef<K, V> copy = copy();
+		copy.negativeTtl = unit.toMillis(duration);
+		return copy;
+	}
+	
+	/**
+	 * Makes {@link CacheService#getOrLoad(CacheRef, Object, java.util.function.Function) getOrLoad} reload entries in the background once
+	 * they're close to expiring: a hot key is refreshed before it expires, instead of every caller waiting for it to be loaded again. Only
+	 * works for entries with a {@link #lifespan(long, TimeUnit) lifespan}.
+	 * 
+	 * @param ratio How much of the lifespan must have passed for an entry to be refreshed (e.g. {@code 0.8}: after 80% of it)
+	 * @return A new reference with refresh-ahead
+	 */
+	public CacheRef<K, V> refreshAhead(final double ratio) {
+		final CacheRef<K, V> copy = copy();
+		copy.refreshAhead = ratio;
+		return copy;
+	}
+	
+	/**
+	 * Stores the cache's values in a compact binary format instead of as objects (see {@link Codec})
+	 * 
+	 * @param id Codec id (unique among the application's codecs and the same on every node)
+	 * @param codec The value type's codec
+	 * @return A new reference with that codec
+	 */
+	public CacheRef<K, V> codec(final int id, final Codec<V> codec) {
+		final CacheRef<K, V> copy = copy();
+		copy.codecId = id;
+		copy.codec = codec;
+		return copy;
+	}
+	
+	/**
+	 * Makes the cache survive restarts: {@link CacheService} writes its (local) entries to a snapshot file when shutting down and, when
+	 * the cache is first used after starting again, reloads them in the background. Entries keep what was left of their lifespan; those
+	 * that had none live {@code maxAge}, since they may have gone stale while the node was down. Keys must be Strings and values Strings
+	 * or have a {@link #codec(int, Codec) codec}.
+	 * 
+	 * <p>Only local caches are snapshotted (a clustered one gets its entries from the other nodes) and only if there's a
+	 * {@link CacheService#SNAPSHOT_DIRECTORY snapshot directory}.</p>
+	 * 
+	 * @param maxAge How old a snapshot may be to still be used
+	 * @param unit {@code maxAge}'s unit
+	 * @return A new reference that survives restarts
+	 */
+	public CacheRef<K, V> warmRestart(final long maxAge, final TimeUnit unit) {
+		final CacheRef<K, V> copy = copy();
+		copy.warmRestartMaxAge = unit.toMillis(maxAge);
+		return copy;
+	}
+	
+	/** @return Does this reference declare any configuration? */
+	public boolean isConfigured() {
+		return lifespan > 0 || maxIdle > 0 || maxEntries > 0 || maxBytes > 0;
+	}
+	
+	/**
+	 * @param defaults Configuration to start from (usually the cache manager's default one; may be {@code null})
+	 * @return The Infinispan configuration for this cache
+	 */
+	Configuration toConfiguration(final Configuration defaults) {
+		final ConfigurationBuilder builder = new ConfigurationBuilder();
+		
+		if (defaults != null) {
+			builder.read(defaults);
+		}
+		
+		if (lifespan > 0) {
+			builder.expiration().lifespan(lifespan);
+		}
+		
+		if (maxIdle > 0) {
+			builder.expiration().maxIdle(maxIdle);
+		}
+		
+		if (maxBytes > 0) {
+			builder.memory().storageType(StorageType.OFF_HEAP).evictionType(EvictionType.MEMORY).size(maxBytes);
+		}
+		else if (maxEntries > 0) {
+			builder.memory().evictionType(EvictionType.COUNT).size(maxEntries);
+		}
+		
+		return builder.build();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public Class<K> getKeyType() {
+		return keyType;
+	}
+	
+	public Class<V> getValueType() {
+		return valueType;
+	}
+	
+	/** @return Lifespan in milliseconds ({@code -1} = not set) */
+	public long getLifespan() {
+		return lifespan;
+	}
+	
+	/** @return Max idle time in milliseconds ({@code -1} = not set) */
+	public long getMaxIdle() {
+		return maxIdle;
+	}
+	
+	/** @return Max entries ({@code -1} = not set) */
+	public long getMaxEntries() {
+		return maxEntries;
+	}
+	
+	/** @return Off-heap budget in bytes ({@code -1} = stored on the heap) */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	/** @return How many entries the L1 tier keeps */
+	public long getL1MaxEntries() {
+		return l1MaxEntries;
+	}
+	
+	/** @return How long (ms) L1 entries live */
+	public long getL1Ttl() {
+		return l1Ttl;
+	}
+	
+	/** @return How long (ms) "no such value" is remembered ({@code -1} = not set) */
+	public long getNegativeTtl() {
+		return negativeTtl;
+	}
+	
+	/** @return After how much of its lifespan an entry is refreshed ahead ({@code -1} = not set) */
+	public double getRefreshAhead() {
+		return refreshAhead;
+	}
+	
+	/** @return Codec id ({@code -1} = no codec) */
+	public int getCodecId() {
+		return codecId;
+	}
+	
+	/** @return The value type's codec ({@code null} = values are stored as they are) */
+	public Codec<V> getCodec() {
+		return codec;
+	}
+	
+	/** @return Is the cache {@link #warmRestart(long, TimeUnit) snapshotted across restarts}? */
+	public boolean isWarmRestart() {
+		return warmRestartMaxAge > 0;
+	}
+	
+	/** @return How old (ms) a warm restart snapshot may be ({@code -1} = no warm restarts) */
+	public long getWarmRestartMaxAge() {
+		return warmRestartMaxAge;
+	}
+	
+	@Override
+	public String toString() {
+		return "CacheRef[" + name + ": " + keyType.getSimpleName() + " -> " + valueType.getSimpleName() + "]";
+	}
+}
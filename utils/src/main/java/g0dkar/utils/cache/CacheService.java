@@ -1,25 +1,123 @@
 package g0dkar.utils.cache;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.enterprise.context.ApplicationScoped;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
+import org.infinispan.AdvancedCache;
 import org.infinispan.Cache;
+import org.infinispan.commons.dataconversion.Encoder;
+import org.infinispan.commons.dataconversion.EncodingException;
+import org.infinispan.commons.util.CloseableIterator;
+import org.infinispan.container.DataContainer;
+import org.infinispan.container.entries.CacheEntry;
+import org.infinispan.context.Flag;
+import org.infinispan.encoding.DataConversion;
+import org.infinispan.eviction.EvictionType;
 import org.infinispan.lifecycle.ComponentStatus;
 import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.marshall.core.EncoderRegistry;
 import org.infinispan.stats.CacheContainerStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import g0dkar.utils.json.Json;
 
 /**
- * Provides an easier, injectable access to {@link Cache} instances
+ * Provides an easier, injectable access to {@link Cache} instances. Caches are resolved only once: their handles are kept, so getting a
+ * cache again (by name or, better yet, by {@link CacheRef}) is just a map lookup. Each cache has its own {@link CacheMetrics}, registered in
+ * JMX and available as Json through {@link #getMetricsJson()}.
+ * 
+ * <p>Caches come from a {@link CacheBackend}: the application server's cache container when there's one at
+ * {@value ContainerCacheBackend#JNDI_NAME}, a {@link StandaloneCacheBackend} otherwise (or whichever one is given to
+ * {@link #CacheService(CacheBackend)}).</p>
+ * 
  * @author Rafael Lins
  *
  */
 @ApplicationScoped
-public class CacheService {
-	@Resource(lookup = "java:/cache/respondeai")
+public class CacheService implements AutoCloseable {
+	/** Default L1 size of {@link #getTwoLevelCache(CacheRef) two-level caches} */
+	public static final long DEFAULT_L1_MAX_ENTRIES = 10_000;
+	/** Default L1 TTL (ms) of {@link #getTwoLevelCache(CacheRef) two-level caches} */
+	public static final long DEFAULT_L1_TTL = 5_000;
+	/**
+	 * System property with the directory where {@link CacheRef#warmRestart(long, TimeUnit) warm restart} snapshots are kept. There's no
+	 * default (snapshots hold whatever the caches do, e.g. users' personal data, so they must go somewhere only this deployment reads): if
+	 * it isn't set and there's no {@link #setSnapshotDirectory(Path) snapshot directory}, there are no warm restarts.
+	 */
+	public static final String SNAPSHOT_DIRECTORY = "g0dkar.utils.cache.snapshots";
+	
+	private static final Logger log = LoggerFactory.getLogger(CacheService.class);
+	
+	@Resource(lookup = ContainerCacheBackend.JNDI_NAME)
+	private EmbeddedCacheManager containerManager;
+	private CacheBackend backend;
 	private EmbeddedCacheManager cacheManager;
 	
+	private final Map<String, Cache<?, ?>> caches = new ConcurrentHashMap<>();
+	private final Map<String, TwoLevelCache<?, ?>> twoLevelCaches = new ConcurrentHashMap<>();
+	private final Map<String, LoadingCache<?, ?>> loadingCaches = new ConcurrentHashMap<>();
+	private final Map<String, CacheMetrics> metrics = new ConcurrentHashMap<>();
+	private final Map<String, CacheRef<?, ?>> warmRestarts = new ConcurrentHashMap<>();
+	/** Caches whose metrics were registered in JMX by this instance */
+	private final Set<String> registered = ConcurrentHashMap.newKeySet();
+	private volatile CodecEncoder encoder;
+	/** Class of the encoder registered for {@link #encoder} (its own or the earlier deployment's that it took over) */
+	private volatile Class<? extends Encoder> encoderClass;
+	private volatile Path snapshotDirectory = System.getProperty(SNAPSHOT_DIRECTORY) != null ? Paths.get(System.getProperty(SNAPSHOT_DIRECTORY)) : null;
+	
+	/** @deprecated CDI */ @Deprecated
+	CacheService() { this(null); }
+	
+	/** @param backend Where caches come from (e.g. a {@link StandaloneCacheBackend} outside the application server) */
+	public CacheService(final CacheBackend backend) {
+		if (backend != null) {
+			this.backend = backend;
+			this.cacheManager = backend.getManager();
+		}
+	}
+	
+	@PostConstruct
+	void init() {
+		if (backend == null) {
+			if (containerManager != null) {
+				backend = new ContainerCacheBackend(containerManager);
+			}
+			else {
+				backend = new StandaloneCacheBackend();
+				if (log.isInfoEnabled()) { log.info("No cache container at " + ContainerCacheBackend.JNDI_NAME + ", using a standalone in-process cache"); }
+			}
+			
+			cacheManager = backend.getManager();
+		}
+	}
+	
+	public CacheBackend getBackend() {
+		return backend;
+	}
+	
 	public EmbeddedCacheManager getManager() {
 		return cacheManager;
 	}
@@ -28,10 +126,470 @@ public class CacheService {
 		return cacheManager.getCache();
 	}
 
+	@SuppressWarnings("unchecked")
 	public <K, V> Cache<K, V> getCache(final String cacheName) {
-		return cacheManager.getCache(cacheName);
+		final Cache<?, ?> cache = caches.get(cacheName);
+		return (Cache<K, V>) (cache != null ? cache : caches.computeIfAbsent(cacheName, cacheManager::getCache));
 	}
-
+	
+	/**
+	 * Gets a cache by its {@link CacheRef reference}. The first time around, if the cache manager has no configuration for that cache,
+	 * the one declared by the reference is defined (a cache already {@link #getCache(String) gotten by name} keeps the configuration it
+	 * was created with). If the reference has a {@link CacheRef#codec(int, Codec) codec}, it's registered and the cache stores its values
+	 * with it (the first time around, so get caches with codecs by reference before getting them by name). If it's a local
+	 * {@link CacheRef#warmRestart(long, TimeUnit) warm restart} cache and there's a {@link #SNAPSHOT_DIRECTORY snapshot directory}, its
+	 * last snapshot starts being restored in the background.
+	 * 
+	 * @param ref The cache reference
+	 * @return The cache
+	 */
+	@SuppressWarnings("unchecked")
+	public <K, V> Cache<K, V> getCache(final CacheRef<K, V> ref) {
+		final Cache<?, ?> cache = caches.get(ref.getName());
+		return (Cache<K, V>) (cache != null ? cache : caches.computeIfAbsent(ref.getName(), name -> {
+			if (ref.isConfigured() && cacheManager.getCacheConfiguration(name) == null) {
+				cacheManager.defineConfiguration(name, ref.toConfiguration(cacheManager.getDefaultCacheConfiguration()));
+			}
+			
+			final Cache<K, V> created = cacheManager.getCache(name);
+			final Cache<K, V> cacheView;
+			
+			if (ref.getCodec() != null) {
+				registerCodec(ref.getCodecId(), ref.getValueType(), ref.getCodec());
+				cacheView = (Cache<K, V>) created.getAdvancedCache().withEncoding(created.getAdvancedCache().getKeyDataConversion().getEncoderClass(), encoderClass);
+			}
+			else {
+				cacheView = created;
+			}
+			
+			if (ref.isWarmRestart()) {
+				if (snapshotDirectory == null) {
+					if (log.isWarnEnabled()) { log.warn("Cache " + name + " won't survive restarts: there's no snapshot directory (" + SNAPSHOT_DIRECTORY + ")"); }
+				}
+				else if (created.getCacheConfiguration().clustering().cacheMode().isClustered()) {
+					// Other nodes have its entries, and republishing old ones would overwrite newer values all over the cluster
+					if (log.isInfoEnabled()) { log.info("Cache " + name + " is clustered: it gets its entries from the other nodes instead of snapshots"); }
+				}
+				else {
+					warmRestarts.put(name, ref);
+					restoreSnapshot(ref, cacheView);
+				}
+			}
+			
+			return cacheView;
+		}));
+	}
+	
+	private Path snapshotFile(final String cacheName) {
+		if (snapshotDirectory == null) {
+			throw new IllegalStateException("There's no snapshot directory: set " + SNAPSHOT_DIRECTORY + " or call setSnapshotDirectory");
+		}
+		
+		return snapshotDirectory.resolve(cacheName.replaceAll("[^\\w.-]", "_") + ".cache");
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <K> Codec<K> keyCodec(final CacheRef<K, ?> ref) {
+		return ref.getKeyType() == String.class ? (Codec<K>) CacheSnapshot.STRING : null;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <V> Codec<V> valueCodec(final CacheRef<?, V> ref) {
+		return ref.getCodec() != null ? ref.getCodec() : ref.getValueType() == String.class ? (Codec<V>) CacheSnapshot.STRING : null;
+	}
+	
+	private <K, V> void restoreSnapshot(final CacheRef<K, V> ref, final Cache<K, V> cache) {
+		final Path file = snapshotFile(ref.getName());
+		final Codec<K> keys = keyCodec(ref);
+		final Codec<V> values = valueCodec(ref);
+		
+		if (keys == null || values == null || !Files.exists(file)) {
+			return;
+		}
+		
+		CompletableFuture.runAsync(() -> {
+			final long start = System.currentTimeMillis();
+			final AdvancedCache<K, V> advancedCache = cache.getAdvancedCache();
+			final long maxAge = ref.getWarmRestartMaxAge();
+			
+			try {
+				final int count = CacheSnapshot.read(file, maxAge, keys, values, (key, value, lifespan) -> {
+					advancedCache.putForExternalRead(key, value, lifespan > 0 ? lifespan : maxAge, TimeUnit.MILLISECONDS);
+				});
+				
+				if (log.isInfoEnabled()) {
+					if (count < 0) { log.info("Cache " + ref.getName() + " snapshot is older than " + maxAge + "ms: not restored"); }
+					else { log.info("Restored " + count + " entries of cache " + ref.getName() + " in " + (System.currentTimeMillis() - start) + "ms"); }
+				}
+			} catch (final IOException | RuntimeException e) {
+				if (log.isWarnEnabled()) { log.warn("Couldn't restore cache " + ref.getName() + " from " + file, e); }
+			}
+		});
+	}
+	
+	/**
+	 * Writes a snapshot of a cache's (local) entries, restored the next time the cache is first gotten (if it's a
+	 * {@link CacheRef#warmRestart(long, TimeUnit) warm restart} cache). Done for every warm restart cache on shutdown.
+	 * 
+	 * @param ref The cache reference
+	 * @return How many entries were written
+	 * @throws IOException Writing the snapshot
+	 * @throws IllegalArgumentException The cache's keys aren't Strings or its values aren't Strings nor have a codec
+	 * @throws IllegalStateException There's no {@link #setSnapshotDirectory(Path) snapshot directory}
+	 */
+	@SuppressWarnings("unchecked")
+	public <K, V> int writeSnapshot(final CacheRef<K, V> ref) throws IOException {
+		final Codec<K> keys = keyCodec(ref);
+		final Codec<V> values = valueCodec(ref);
+		
+		if (keys == null || values == null) {
+			throw new IllegalArgumentException("Can't snapshot " + ref + ": keys must be Strings and values Strings or have a codec");
+		}
+		
+		// Entries are iterated in their storage format (e.g. serialized, for off-heap caches)
+		final AdvancedCache<Object, Object> local = ((Cache<Object, Object>) getCache(ref)).getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL, Flag.SKIP_CACHE_LOAD);
+		try (final CloseableIterator<CacheEntry<Object, Object>> entries = local.cacheEntrySet().iterator()) {
+			return CacheSnapshot.write(snapshotFile(ref.getName()), () -> entries, fromStorage(local.getKeyDataConversion(), keys),
+					fromStorage(local.getValueDataConversion(), values));
+		}
+	}
+	
+	/** @return A codec that writes values in their storage format (whose reading is left to {@code codec}) */
+	private static <T> Codec<Object> fromStorage(final DataConversion conversion, final Codec<T> codec) {
+		return new Codec<Object>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public void write(final Object value, final CompactOutput out) {
+				codec.write((T) conversion.fromStorage(value), out);
+			}
+			
+			@Override
+			public Object read(final CompactInput in) {
+				return codec.read(in);
+			}
+		};
+	}
+	
+	/**
+	 * @param snapshotDirectory Where {@link CacheRef#warmRestart(long, TimeUnit) warm restart} snapshots are kept (one only this deployment
+	 *            reads: they hold whatever the caches do). Set it before getting the caches.
+	 */
+	public void setSnapshotDirectory(final Path snapshotDirectory) {
+		this.snapshotDirectory = snapshotDirectory;
+	}
+	
+	/**
+	 * Registers a {@link Codec} in the cache manager (caches whose {@link CacheRef} has a codec have it registered automatically)
+	 * 
+	 * @param id Codec id (unique among the application's codecs and the same on every node)
+	 * @param type Value type
+	 * @param codec The codec
+	 */
+	public <T> void registerCodec(final int id, final Class<T> type, final Codec<T> codec) {
+		getEncoder().register(id, type, codec);
+	}
+	
+	private CodecEncoder getEncoder() {
+		if (encoder == null) {
+			final EncoderRegistry registry = getEncoderRegistry();
+			
+			synchronized (registry) {
+				if (encoder == null) {
+					registerEncoder(registry);
+				}
+			}
+		}
+		
+		return encoder;
+	}
+	
+	@SuppressWarnings("deprecation")
+	private EncoderRegistry getEncoderRegistry() {
+		// The only public way to it in Infinispan 10.0
+		return cacheManager.getGlobalComponentRegistry().getComponent(EncoderRegistry.class);
+	}
+	
+	/**
+	 * Registers this deployment's {@link CodecEncoder} in the cache manager. Infinispan can't unregister encoders and the application
+	 * server's cache manager outlives deployments, so it may still have the one of an earlier deployment (another class loader, whose
+	 * codecs are of no use here): that one stays registered and {@link CodecEncoder#test(Encoder) hands everything} to the new one, so the
+	 * id stays the same on every node. If the id belongs to a deployment that's still around, the next free one is used.
+	 */
+	@SuppressWarnings("unchecked")
+	private void registerEncoder(final EncoderRegistry registry) {
+		if (registry.isRegistered(CodecEncoder.class)) {
+			// Registered by another CacheService of this deployment
+			encoderClass = CodecEncoder.class;
+			encoder = (CodecEncoder) registry.getEncoder(CodecEncoder.class, null);
+			return;
+		}
+		
+		for (int id = CodecEncoder.ID; id < CodecEncoder.ID + CodecEncoder.IDS; id++) {
+			final CodecEncoder codecEncoder = new CodecEncoder((short) id);
+			final Encoder registered = getEncoder(registry, codecEncoder.id());
+			
+			if (registered == null) {
+				registry.registerEncoder(codecEncoder);
+				encoderClass = CodecEncoder.class;
+			}
+			else if (registered instanceof Predicate && ((Predicate<Encoder>) registered).test(codecEncoder)) {
+				if (log.isInfoEnabled()) { log.info("Taking over the codec encoder of an earlier deployment (" + registered.getClass().getClassLoader() + ")"); }
+				encoderClass = registered.getClass();
+			}
+			else {
+				continue;
+			}
+			
+			if (id != CodecEncoder.ID && log.isWarnEnabled()) { log.warn("Codec encoder id " + CodecEncoder.ID + " belongs to another deployment, using " + id + " (nodes of clustered caches must use the same one)"); }
+			encoder = codecEncoder;
+			return;
+		}
+		
+		throw new IllegalStateException("Codec encoder ids " + CodecEncoder.ID + " to " + (CodecEncoder.ID + CodecEncoder.IDS - 1) + " are all taken");
+	}
+	
+	private static Encoder getEncoder(final EncoderRegistry registry, final short id) {
+		try {
+			return registry.getEncoder(null, id);
+		} catch (final EncodingException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the {@link TwoLevelCache} of a cache: an in-process L1 tier (sized by {@link CacheRef#l1(long, long, java.util.concurrent.TimeUnit)})
+	 * in front of the {@link #getCache(CacheRef) Infinispan cache}, loading through its {@link #getLoadingCache(CacheRef) LoadingCache}.
+	 * There's only one per cache.
+	 * 
+	 * @param ref The cache reference
+	 * @return The two-level cache
+	 */
+	@SuppressWarnings("unchecked")
+	public <K, V> TwoLevelCache<K, V> getTwoLevelCache(final CacheRef<K, V> ref) {
+		final TwoLevelCache<?, ?> cache = twoLevelCaches.get(ref.getName());
+		return (TwoLevelCache<K, V>) (cache != null ? cache : twoLevelCaches.computeIfAbsent(ref.getName(), name -> {
+			final TwoLevelCache<K, V> twoLevelCache = new TwoLevelCache<>(getLoadingCache(ref), ref.getL1MaxEntries(), ref.getL1Ttl());
+			getMetrics(name).setTwoLevelCache(twoLevelCache);
+			return twoLevelCache;
+		}));
+	}
+	
+	/**
+	 * Gets the {@link LoadingCache} of a cache (configured by the reference's {@link CacheRef#lifespan(long, java.util.concurrent.TimeUnit)
+	 * lifespan}, {@link CacheRef#negativeTtl(long, java.util.concurrent.TimeUnit) negative TTL} and
+	 * {@link CacheRef#refreshAhead(double) refresh-ahead}). There's only one per cache.
+	 * 
+	 * @param ref The cache reference
+	 * @return The loading cache
+	 */
+	@SuppressWarnings("unchecked")
+	public <K, V> LoadingCache<K, V> getLoadingCache(final CacheRef<K, V> ref) {
+		final LoadingCache<?, ?> cache = loadingCaches.get(ref.getName());
+		return (LoadingCache<K, V>) (cache != null ? cache : loadingCaches.computeIfAbsent(ref.getName(), name -> new LoadingCache<>(getCache(ref), ref.getLifespan(), ref.getNegativeTtl(), ref.getRefreshAhead(), getMetrics(name))));
+	}
+	
+	/**
+	 * Gets a value from a cache, loading (and caching) it on a miss. Concurrent misses for the same key share a single load.
+	 * 
+	 * @param ref The cache reference
+	 * @param key The key
+	 * @param loader Loads the value on a miss (may return {@code null})
+	 * @return The value (or {@code null})
+	 * @see LoadingCache
+	 */
+	public <K, V> V getOrLoad(final CacheRef<K, V> ref, final K key, final Function<? super K, ? extends V> loader) {
+		return getLoadingCache(ref).get(key, loader);
+	}
+	
+	/**
+	 * Same as {@link #getOrLoad(CacheRef, Object, Function)} for a cache without a {@link CacheRef} (so no negative caching nor
+	 * refresh-ahead, unless a reference with them was used first)
+	 * 
+	 * @param cacheName The cache name
+	 * @param key The key
+	 * @param loader Loads the value on a miss (may return {@code null})
+	 * @return The value (or {@code null})
+	 * @deprecated Looks the cache up by name on every call (and its first one has no {@link CacheRef} settings): keep a {@link CacheRef} in
+	 *             a constant and use {@link #getOrLoad(CacheRef, Object, Function)}
+	 */
+	@Deprecated
+	@SuppressWarnings("unchecked")
+	public <K, V> V getOrLoad(final String cacheName, final K key, final Function<? super K, ? extends V> loader) {
+		final LoadingCache<K, V> cache = (LoadingCache<K, V>) loadingCaches.get(cacheName);
+		return cache != null ? cache.get(key, loader) : getOrLoad((CacheRef<K, V>) CacheRef.of(cacheName, key.getClass(), Object.class), key, loader);
+	}
+	
+	/**
+	 * Gets many values at once (with a single {@code getAll} on the cache)
+	 * 
+	 * @param ref The cache reference
+	 * @param keys The keys
+	 * @return The values found, by key (keys without a value are left out)
+	 */
+	public <K, V> Map<K, V> getAll(final CacheRef<K, V> ref, final Collection<? extends K> keys) {
+		return getCache(ref).getAdvancedCache().getAll(new HashSet<>(keys));
+	}
+	
+	/**
+	 * Gets many values at once, loading all the missing ones with a single {@link BulkLoader} call
+	 * 
+	 * @param ref The cache reference
+	 * @param keys The keys
+	 * @param loader Loads the missing keys
+	 * @return The values found (cached or loaded), by key, in the order of {@code keys} (keys without a value are left out)
+	 * @see LoadingCache#getAll(Collection, BulkLoader)
+	 */
+	public <K, V> Map<K, V> getAll(final CacheRef<K, V> ref, final Collection<? extends K> keys, final BulkLoader<K, V> loader) {
+		return getLoadingCache(ref).getAll(keys, loader);
+	}
+	
+	/**
+	 * Writes many values at once (with a single {@code putAll}, using the reference's lifespan)
+	 * 
+	 * @param ref The cache reference
+	 * @param values Values by key
+	 */
+	public <K, V> void putAll(final CacheRef<K, V> ref, final Map<? extends K, ? extends V> values) {
+		getLoadingCache(ref).putAll(values);
+	}
+	
+	/**
+	 * Gets the metrics of a cache. The first time around they are registered in JMX (as {@code g0dkar.utils:type=Cache,name=<cacheName>},
+	 * unless another deployment already has that name) and start counting the cache's evictions.
+	 * 
+	 * @param cacheName The cache name
+	 * @return The cache's metrics
+	 */
+	public CacheMetrics getMetrics(final String cacheName) {
+		final CacheMetrics cacheMetrics = metrics.get(cacheName);
+		return cacheMetrics != null ? cacheMetrics : metrics.computeIfAbsent(cacheName, name -> {
+			final CacheMetrics newMetrics = new CacheMetrics(name);
+			final Cache<?, ?> cache = getCache(name);
+			final DataContainer<?, ?> container = cache.getAdvancedCache().getDataContainer();
+			newMetrics.setSize(container::sizeIncludingExpired);
+			
+			if (cache.getCacheConfiguration().memory().evictionType() == EvictionType.MEMORY) {
+				newMetrics.setMemory(container::evictionSize, container::capacity);
+			}
+			
+			cache.addListener(newMetrics.getEvictionListener());
+			register(newMetrics);
+			return newMetrics;
+		});
+	}
+	
+	/** @return Every cache's {@link CacheMetrics#snapshot() metrics}, by cache name */
+	public Map<String, Map<String, Object>> getMetricsSnapshot() {
+		final Map<String, Map<String, Object>> snapshot = new TreeMap<>();
+		
+		for (final CacheMetrics cacheMetrics : metrics.values()) {
+			snapshot.put(cacheMetrics.getName(), cacheMetrics.snapshot());
+		}
+		
+		return snapshot;
+	}
+	
+	/** @return {@link #getMetricsSnapshot()} as Json */
+	public String getMetricsJson() {
+		return Json.toJson(getMetricsSnapshot());
+	}
+	
+	private static ObjectName objectName(final String cacheName) throws JMException {
+		return new ObjectName("g0dkar.utils:type=Cache,name=" + ObjectName.quote(cacheName));
+	}
+	
+	/**
+	 * Registers a cache's metrics in JMX, unless another deployment (sharing the same caches) already did: theirs are just as good and
+	 * taking the name over would leave them with nothing to unregister.
+	 */
+	private void register(final CacheMetrics cacheMetrics) {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = objectName(cacheMetrics.getName());
+			
+			if (!server.isRegistered(name)) {
+				server.registerMBean(cacheMetrics, name);
+				registered.add(cacheMetrics.getName());
+				return;
+			}
+		} catch (final InstanceAlreadyExistsException e) {
+			// Registered meanwhile
+		} catch (final JMException e) {
+			if (log.isWarnEnabled()) { log.warn("Couldn't register the metrics of cache " + cacheMetrics.getName() + " in JMX", e); }
+			return;
+		}
+		
+		if (log.isInfoEnabled()) { log.info("The metrics of cache " + cacheMetrics.getName() + " are already in JMX (from another deployment), not registering them"); }
+	}
+	
+	/** Unregisters a cache's metrics from JMX, if they were registered by this instance */
+	private void unregister(final CacheMetrics cacheMetrics) {
+		if (!registered.remove(cacheMetrics.getName())) {
+			return;
+		}
+		
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = objectName(cacheMetrics.getName());
+			
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (final JMException e) {
+			if (log.isDebugEnabled()) { log.debug("Couldn't unregister the metrics of cache " + cacheMetrics.getName() + " from JMX", e); }
+		}
+	}
+	
+	/** @return Every {@link #getTwoLevelCache(CacheRef) two-level cache} created so far, by name */
+	public Map<String, TwoLevelCache<?, ?>> getTwoLevelCaches() {
+		return twoLevelCaches;
+	}
+	
+	/** Lets go of every cache handle (and stops the backend, if it's a standalone one) */
+	@Override
+	@PreDestroy
+	public void close() {
+		for (final CacheRef<?, ?> ref : warmRestarts.values()) {
+			try {
+				final long start = System.currentTimeMillis();
+				final int count = writeSnapshot(ref);
+				if (log.isInfoEnabled()) { log.info("Wrote " + count + " entries of cache " + ref.getName() + " in " + (System.currentTimeMillis() - start) + "ms"); }
+			} catch (final IOException | RuntimeException e) {
+				if (log.isWarnEnabled()) { log.warn("Couldn't write the snapshot of cache " + ref.getName(), e); }
+			}
+		}
+		
+		for (final TwoLevelCache<?, ?> cache : twoLevelCaches.values()) {
+			cache.close();
+		}
+		
+		for (final CacheMetrics cacheMetrics : metrics.values()) {
+			final Cache<?, ?> cache = caches.get(cacheMetrics.getName());
+			
+			if (cache != null) {
+				cache.removeListener(cacheMetrics.getEvictionListener());
+			}
+			
+			unregister(cacheMetrics);
+		}
+		
+		twoLevelCaches.clear();
+		loadingCaches.clear();
+		metrics.clear();
+		warmRestarts.clear();
+		caches.clear();
+		
+		if (encoder != null) {
+			// Infinispan can't unregister it: it's left for the next deployment to take over
+			encoder.retire();
+			encoder = null;
+		}
+		
+		if (backend != null) {
+			backend.close();
+		}
+	}
+	
 	public ComponentStatus getStatus() {
 		return cacheManager.getStatus();
 	}
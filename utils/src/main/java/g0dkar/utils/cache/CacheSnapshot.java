@@ -0,0 +1,172 @@
+package g0dkar.utils.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.infinispan.container.entries.CacheEntry;
+
+/**
+ * <p>Reads and writes snapshots of a cache's entries, so a node can start with warm caches after a restart (see
+ * {@link CacheRef#warmRestart(long, java.util.concurrent.TimeUnit)}).</p>
+ * 
+ * <p>Format (big endian): {@code "CCH1"}, the snapshot time (epoch millis, {@code long}) and then, for each entry, its key, when it
+ * expires (epoch millis, {@code -1} = never) and its value. Keys and values are written by their {@link Codec} and prefixed by their
+ * length ({@code int}). A length of {@code -1} marks the end of the file, so truncated files are detected.</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public final class CacheSnapshot {
+	private static final int MAGIC = 0x43434831; // CCH1
+	private static final int END = -1;
+	
+	/** Codec of String keys and values */
+	static final Codec<String> STRING = new Codec<String>() {
+		@Override
+		public void write(final String value, final CompactOutput out) {
+			out.writeString(value);
+		}
+		
+		@Override
+		public String read(final CompactInput in) {
+			return in.readString();
+		}
+	};
+	
+	private CacheSnapshot() {}
+	
+	/**
+	 * Receives the entries read from a snapshot
+	 * 
+	 * @param <K> Key type
+	 * @param <V> Value type
+	 */
+	@FunctionalInterface
+	public interface Restorer<K, V> {
+		/**
+		 * @param key The key
+		 * @param value The value
+		 * @param lifespan How long (ms) it has left to live ({@code -1}: it doesn't expire)
+		 */
+		void restore(K key, V value, long lifespan);
+	}
+	
+	/**
+	 * Writes a snapshot. The file is replaced atomically (written to a temporary file first and then moved), so a node starting
+	 * concurrently never reads half a snapshot.
+	 * 
+	 * @param file The file
+	 * @param entries The entries (expired ones are skipped)
+	 * @param keys Key codec
+	 * @param values Value codec
+	 * @return How many entries were written
+	 * @throws IOException Writing the file
+	 */
+	public static <K, V> int write(final Path file, final Iterable<? extends CacheEntry<K, V>> entries, final Codec<K> keys, final Codec<V> values) throws IOException {
+		final long now = System.currentTimeMillis();
+		final Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		final Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		int count = 0;
+		
+		try {
+			try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeLong(now);
+				
+				for (final CacheEntry<K, V> entry : entries) {
+					final long expires = entry.getLifespan() > 0 && entry.getCreated() > 0 ? entry.getCreated() + entry.getLifespan() : -1;
+					
+					if (entry.getValue() != null && (expires < 0 || expires > now)) {
+						write(out, entry.getKey(), keys);
+						out.writeLong(expires);
+						write(out, entry.getValue(), values);
+						count++;
+					}
+				}
+				
+				out.writeInt(END);
+			}
+			
+			try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		
+		return count;
+	}
+	
+	private static <T> void write(final DataOutputStream out, final T value, final Codec<T> codec) throws IOException {
+		final CompactOutput bytes = new CompactOutput();
+		codec.write(value, bytes);
+		out.writeInt(bytes.size());
+		out.write(bytes.toByteArray());
+	}
+	
+	/**
+	 * Reads a snapshot ({@link FileChannel#map(FileChannel.MapMode, long, long) memory mapped}), skipping the entries that expired
+	 * meanwhile
+	 * 
+	 * @param file The file
+	 * @param maxAge How old (ms) the snapshot may be (an older one isn't read at all)
+	 * @param keys Key codec
+	 * @param values Value codec
+	 * @param restorer Receives each (still valid) entry
+	 * @return How many entries were restored ({@code -1} if the snapshot was too old)
+	 * @throws IOException Reading the file or it isn't a (complete) snapshot
+	 */
+	public static <K, V> int read(final Path file, final long maxAge, final Codec<K> keys, final Codec<V> values, final Restorer<K, V> restorer) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			try {
+				if (buffer.getInt() != MAGIC) {
+					throw new IOException(file + " is not a cache snapshot");
+				}
+				
+				final long now = System.currentTimeMillis();
+				if (now - buffer.getLong() > maxAge) {
+					return -1;
+				}
+				
+				int count = 0;
+				for (int length = buffer.getInt(); length != END; length = buffer.getInt()) {
+					final K key = read(buffer, length, keys);
+					final long expires = buffer.getLong();
+					final V value = read(buffer, buffer.getInt(), values);
+					
+					if (expires < 0) {
+						restorer.restore(key, value, -1);
+						count++;
+					}
+					else if (expires > now) {
+						restorer.restore(key, value, expires - now);
+						count++;
+					}
+				}
+				
+				return count;
+			} catch (final BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+				throw new IOException(file + " is truncated or corrupted", e);
+			}
+		}
+	}
+	
+	private static <T> T read(final MappedByteBuffer buffer, final int length, final Codec<T> codec) {
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return codec.read(new CompactInput(bytes));
+	}
+}
@@ -0,0 +1,56 @@
+package g0dkar.utils.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit/miss counters of a cache (or of one tier of a {@link TwoLevelCache}). Cheap to update from many threads at once.
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class CacheStats {
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	public void hit() {
+		hits.increment();
+	}
+	
+	public void miss() {
+		misses.increment();
+	}
+	
+	/**
+	 * @param hits How many hits
+	 * @param misses How many misses
+	 */
+	public void add(final long hits, final long misses) {
+		this.hits.add(hits);
+		this.misses.add(misses);
+	}
+	
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	/** @return {@code hits / (hits + misses)} or {@code 0} if there were no lookups */
+	public double getHitRatio() {
+		final long hits = getHits();
+		final long total = hits + getMisses();
+		return total > 0 ? (double) hits / total : 0;
+	}
+	
+	public void reset() {
+		hits.reset();
+		misses.reset();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d hits, %d misses (%.1f%%)", getHits(), getMisses(), getHitRatio() * 100);
+	}
+}
@@ -0,0 +1,62 @@
+package g0dkar.utils.cache;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.util.Nonbinding;
+import javax.interceptor.InterceptorBinding;
+
+/**
+ * <p>Memoizes a CDI bean method in a {@link CacheService} cache: the first call for a key runs the method and caches its result, the
+ * following ones get it from the cache. Concurrent calls for the same key (on this node) share a single run of the method.
+ * {@code null}s aren't cached.</p>
+ * 
+ * <pre>
+ * &#64;Cached(cache = "profiles", key = 0, normalize = true, lifespan = 10, unit = TimeUnit.MINUTES)
+ * public Profile profile(final String email, final Locale locale) { ... }
+ * </pre>
+ * 
+ * <p>The key is the chosen parameter itself when there's only one (so the cache can be shared with code using the same keys) or a
+ * {@link java.util.List} of the chosen parameters otherwise. As with any interceptor, calls from within the bean itself ({@code this.x()})
+ * aren't intercepted.</p>
+ * 
+ * <p>If the cache also has a {@link CacheRef} with a configuration of its own (e.g. a {@link CacheRef#codec(int, Codec) codec}), make sure
+ * it's gotten by that reference before the first intercepted call.</p>
+ * 
+ * @author Rafael Lins
+ * @see CachedInterceptor
+ */
+@Inherited
+@Documented
+@InterceptorBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.TYPE })
+public @interface Cached {
+	/** @return Cache name (default: {@code <class name>.<method name>(<parameter types>)}, e.g. {@code a.Profiles.profile(java.lang.String)}) */
+	@Nonbinding
+	String cache() default "";
+	
+	/** @return Indexes of the parameters that make the key (default: all of them) */
+	@Nonbinding
+	int[] key() default {};
+	
+	/** @return Trim and lower case String key parameters (e.g. e-mails)? */
+	@Nonbinding
+	boolean normalize() default false;
+	
+	/**
+	 * @return How long results live ({@code 0} or less: as long as the cache's configuration says). Every user of a cache must agree on it:
+	 *         calls fail with an {@link IllegalStateException} if the cache was first gotten with another lifespan.
+	 */
+	@Nonbinding
+	long lifespan() default -1;
+	
+	/** @return {@link #lifespan()}'s unit */
+	@Nonbinding
+	TimeUnit unit() default TimeUnit.SECONDS;
+}
@@ -0,0 +1,136 @@
+package g0dkar.utils.cache;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+
+/**
+ * Implements {@link Cached} on top of {@link CacheService#getLoadingCache(CacheRef)}. Everything that can be worked out from the annotation
+ * (cache reference, which parameters make the key) is worked out once per method, so a call costs building the key and a cache lookup.
+ * 
+ * @author Rafael Lins
+ *
+ */
+@Cached
+@Interceptor
+@Priority(Interceptor.Priority.LIBRARY_BEFORE)
+public class CachedInterceptor implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final Map<Method, CachedMethod> METHODS = new ConcurrentHashMap<>();
+	
+	private final CacheService cs;
+	
+	/** @deprecated CDI */ @Deprecated
+	CachedInterceptor() { this(null); }
+	
+	@Inject
+	public CachedInterceptor(final CacheService cs) {
+		this.cs = cs;
+	}
+	
+	@AroundInvoke
+	public Object cached(final InvocationContext context) throws Exception {
+		final CachedMethod method = METHODS.computeIfAbsent(context.getMethod(), CachedMethod::new);
+		final Object cacheKey = method.key(context.getParameters());
+		
+		if (cacheKey == null) {
+			return context.proceed();
+		}
+		
+		final LoadingCache<Object, Object> cache = cs.getLoadingCache(method.ref);
+		if (Math.max(0, cache.getLifespan()) != Math.max(0, method.ref.getLifespan())) {
+			throw new IllegalStateException("Cache " + method.ref.getName() + " has a lifespan of " + cache.getLifespan() + "ms, not the "
+					+ method.ref.getLifespan() + "ms of @Cached " + context.getMethod() + ": use another cache (or the same lifespan)");
+		}
+		
+		try {
+			return cache.get(cacheKey, key -> {
+				try {
+					return context.proceed();
+				} catch (final RuntimeException e) {
+					throw e;
+				} catch (final Exception e) {
+					throw new ProceedException(e);
+				}
+			});
+		} catch (final ProceedException e) {
+			throw (Exception) e.getCause();
+		}
+	}
+	
+	/** What a {@link Cached} method's annotation says, worked out once */
+	private static class CachedMethod {
+		private final CacheRef<Object, Object> ref;
+		private final int[] key;
+		private final boolean normalize;
+		private final String constantKey;
+		
+		CachedMethod(final Method method) {
+			final Cached cached = method.isAnnotationPresent(Cached.class) ? method.getAnnotation(Cached.class) : method.getDeclaringClass().getAnnotation(Cached.class);
+			final String name = cached == null || cached.cache().isEmpty() ? defaultName(method) : cached.cache();
+			final CacheRef<Object, Object> plain = CacheRef.of(name, Object.class, Object.class);
+			
+			ref = cached != null && cached.lifespan() > 0 ? plain.lifespan(cached.lifespan(), cached.unit()) : plain;
+			normalize = cached != null && cached.normalize();
+			constantKey = method.getName();
+			
+			if (cached == null || cached.key().length == 0) {
+				key = new int[method.getParameterCount()];
+				Arrays.setAll(key, i -> i);
+			}
+			else {
+				key = cached.key().clone();
+				
+				for (final int index : key) {
+					if (index < 0 || index >= method.getParameterCount()) {
+						throw new IllegalArgumentException("@Cached key index " + index + " is not a parameter of " + method);
+					}
+				}
+			}
+		}
+		
+		/** @return {@code <class name>.<method name>(<parameter types>)}, so overloads don't share a cache */
+		private static String defaultName(final Method method) {
+			return method.getDeclaringClass().getName() + "." + method.getName()
+					+ Arrays.stream(method.getParameterTypes()).map(Class::getTypeName).collect(Collectors.joining(",", "(", ")"));
+		}
+		
+		Object key(final Object[] parameters) {
+			switch (key.length) {
+				case 0:
+					return constantKey;
+				case 1:
+					return part(parameters[key[0]]);
+				default:
+					final Object[] parts = new Object[key.length];
+					for (int i = 0; i < key.length; i++) {
+						parts[i] = part(parameters[key[i]]);
+					}
+					return Arrays.asList(parts);
+			}
+		}
+		
+		private Object part(final Object parameter) {
+			return normalize && parameter instanceof String ? ((String) parameter).trim().toLowerCase(Locale.ROOT) : parameter;
+		}
+	}
+	
+	/** Carries a checked exception thrown by the intercepted method through the loader */
+	private static class ProceedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		
+		ProceedException(final Exception cause) {
+			super(cause);
+		}
+	}
+}
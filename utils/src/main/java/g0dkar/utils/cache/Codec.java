@@ -0,0 +1,26 @@
+package g0dkar.utils.cache;
+
+/**
+ * <p>Compact binary format of a cached value type. Caches whose {@link CacheRef} has a {@link CacheRef#codec(int, Codec) codec} store
+ * their values as the bytes written here instead of the objects themselves: less heap per entry and much smaller (and faster) replication
+ * than Java serialization.</p>
+ * 
+ * <p>Every node must use the same codec under the same id: changing the format means registering the new one under a new id.</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <T> Value type
+ */
+public interface Codec<T> {
+	/**
+	 * @param value The value (never {@code null})
+	 * @param out Where to write it
+	 */
+	void write(T value, CompactOutput out);
+	
+	/**
+	 * @param in Where to read the value from
+	 * @return The value
+	 */
+	T read(CompactInput in);
+}
@@ -0,0 +1,173 @@
+package g0dkar.utils.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import org.infinispan.commons.dataconversion.Encoder;
+import org.infinispan.commons.dataconversion.MediaType;
+import org.infinispan.commons.marshall.WrappedByteArray;
+import org.infinispan.commons.marshall.WrappedBytes;
+
+/**
+ * <p>Infinispan {@link Encoder} that stores values as the bytes written by their {@link Codec}: a varint codec id followed by the value
+ * (as {@link WrappedBytes}, which is also how off-heap caches store them).
+ * Caches are read and written through a {@link org.infinispan.AdvancedCache#withEncoding(Class, Class) view} using it, so callers (and
+ * listeners) still see objects.</p>
+ * 
+ * <p>There's one per deployment, with every codec {@link CacheService#registerCodec(int, Class, Codec) registered} in it. Infinispan can't
+ * unregister encoders, so one left behind in the cache manager by an earlier deployment (another class loader) stays registered and
+ * {@link #test(Encoder) hands everything} to the next deployment's: the id stays the same, on every node.</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class CodecEncoder implements Encoder, Predicate<Encoder>, BooleanSupplier {
+	/** Encoder id (outside the range Infinispan uses for its own encoders), unless a deployment that is still around has it */
+	public static final short ID = 1001;
+	/** How many ids from {@link #ID} on are tried when it's taken by a deployment that's still around */
+	static final int IDS = 100;
+	
+	private final short id;
+	private final Map<Integer, Codec<?>> byId = new ConcurrentHashMap<>();
+	private final Map<Class<?>, Integer> ids = new ConcurrentHashMap<>();
+	private volatile boolean retired;
+	/** The encoder of the deployment that took over this one's id */
+	private volatile Encoder successor;
+	
+	public CodecEncoder() {
+		this(ID);
+	}
+	
+	CodecEncoder(final short id) {
+		this.id = id;
+	}
+	
+	/**
+	 * @param id Codec id (the same on every node)
+	 * @param type Value type
+	 * @param codec The codec
+	 * @throws IllegalStateException Another codec (or type) already has that id
+	 */
+	public <T> void register(final int id, final Class<T> type, final Codec<T> codec) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Codec ids can't be negative: " + id);
+		}
+		
+		final Integer previousId = ids.putIfAbsent(type, id);
+		if (previousId != null && previousId != id) {
+			throw new IllegalStateException(type.getName() + " already has a codec with id " + previousId);
+		}
+		
+		final Codec<?> previous = byId.putIfAbsent(id, codec);
+		if (previous != null && previous != codec && !previous.getClass().equals(codec.getClass())) {
+			throw new IllegalStateException("Codec id " + id + " is already used by " + previous.getClass().getName());
+		}
+	}
+	
+	/**
+	 * @param type Value type
+	 * @return Does it have a codec?
+	 */
+	public boolean isRegistered(final Class<?> type) {
+		return ids.containsKey(type);
+	}
+	
+	/** This encoder's deployment is gone: a later one may {@link #test(Encoder) take over its id} */
+	void retire() {
+		retired = true;
+	}
+	
+	/** @return Is this encoder's deployment gone? (a {@link BooleanSupplier} so other deployments' encoders can ask) */
+	@Override
+	public boolean getAsBoolean() {
+		return retired;
+	}
+	
+	/**
+	 * Lets the encoder of a later deployment take over this one's id: this one stays registered and hands everything to it. A
+	 * {@link Predicate} so other deployments (whose {@code CodecEncoder} is another class) can call it.
+	 * 
+	 * @param next The later deployment's encoder
+	 * @return Did it take over? Not if this encoder's deployment (or the one that took over last) is still around.
+	 */
+	@Override
+	public synchronized boolean test(final Encoder next) {
+		final Encoder current = successor;
+		
+		if (retired && (current == null || current instanceof BooleanSupplier && ((BooleanSupplier) current).getAsBoolean())) {
+			successor = next;
+			return true;
+		}
+		
+		return false;
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object toStorage(final Object content) {
+		final Encoder next = successor;
+		if (next != null) {
+			return next.toStorage(content);
+		}
+		else if (content == null) {
+			return null;
+		}
+		
+		final Integer codecId = ids.get(content.getClass());
+		if (codecId == null) {
+			throw new IllegalArgumentException("There's no codec for " + content.getClass().getName());
+		}
+		
+		final CompactOutput out = new CompactOutput();
+		out.writeVarInt(codecId);
+		((Codec<Object>) byId.get(codecId)).write(content, out);
+		return new WrappedByteArray(out.toByteArray());
+	}
+	
+	@Override
+	public Object fromStorage(final Object content) {
+		final Encoder next = successor;
+		final CompactInput in;
+		
+		if (next != null) {
+			return next.fromStorage(content);
+		}
+		else if (content instanceof WrappedBytes) {
+			final WrappedBytes bytes = (WrappedBytes) content;
+			in = new CompactInput(bytes.getBytes(), bytes.backArrayOffset(), bytes.getLength());
+		}
+		else if (content instanceof byte[]) {
+			in = new CompactInput((byte[]) content);
+		}
+		else {
+			return content;
+		}
+		
+
+		final int codecId = in.readVarInt();
+		final Codec<?> codec = byId.get(codecId);
+		
+		if (codec == null) {
+			throw new IllegalStateException("There's no codec with id " + codecId + " on this node");
+		}
+		
+		return codec.read(in);
+	}
+	
+	@Override
+	public boolean isStorageFormatFilterable() {
+		return false;
+	}
+	
+	@Override
+	public MediaType getStorageFormat() {
+		return MediaType.APPLICATION_OCTET_STREAM;
+	}
+	
+	@Override
+	public short id() {
+		return id;
+	}
+}
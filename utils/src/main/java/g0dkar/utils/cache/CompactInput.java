@@ -0,0 +1,151 @@
+package g0dkar.utils.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Reads what a {@link CompactOutput} wrote (in the same order). Reading past the end or a malformed varint throws an
+ * {@link IllegalArgumentException}.
+ * 
+ * @author Rafael Lins
+ * @see Codec
+ */
+public final class CompactInput {
+	private final byte[] buffer;
+	private final int limit;
+	private int position;
+	
+	/** @param buffer What a {@link CompactOutput} wrote */
+	public CompactInput(final byte[] buffer) {
+		this(buffer, 0, buffer.length);
+	}
+	
+	/**
+	 * @param buffer What a {@link CompactOutput} wrote
+	 * @param offset Where to start reading
+	 * @param length How many bytes there are
+	 */
+	public CompactInput(final byte[] buffer, final int offset, final int length) {
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+	
+	private void require(final int bytes) {
+		if (bytes < 0 || position + bytes > limit) {
+			throw new IllegalArgumentException("Truncated value: needed " + bytes + " bytes at " + position + " of " + limit);
+		}
+	}
+	
+	public int readByte() {
+		require(1);
+		return buffer[position++];
+	}
+	
+	public int readVarInt() {
+		int value = 0;
+		
+		for (int shift = 0; shift < 35; shift += 7) {
+			final int b = readByte();
+			value |= (b & 0x7F) << shift;
+			
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		
+		throw new IllegalArgumentException("Malformed varint at " + position);
+	}
+	
+	public long readVarLong() {
+		long value = 0;
+		
+		for (int shift = 0; shift < 70; shift += 7) {
+			final int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			
+			if ((b & 0x80) == 0) {
+				return (value >>> 1) ^ -(value & 1);
+			}
+		}
+		
+		throw new IllegalArgumentException("Malformed varint at " + position);
+	}
+	
+	public Boolean readBoolean() {
+		final int value = readByte();
+		return value == 0 ? null : value == 2;
+	}
+	
+	public Long readLong() {
+		return Boolean.TRUE.equals(readBoolean()) ? readVarLong() : null;
+	}
+	
+	public Integer readInteger() {
+		return Boolean.TRUE.equals(readBoolean()) ? (int) readVarLong() : null;
+	}
+	
+	public String readString() {
+		final int length = readVarInt() - 1;
+		
+		if (length < 0) {
+			return null;
+		}
+		
+		require(length);
+		final String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+		position += length;
+		return value;
+	}
+	
+	/**
+	 * @param factory Creates the collection, given its size (e.g. {@code ArrayList::new})
+	 * @param reader Reads each element (e.g. {@code CompactInput::readString})
+	 * @return The collection or {@code null}
+	 */
+	public <T, C extends Collection<T>> C readCollection(final IntFunction<C> factory, final Function<CompactInput, T> reader) {
+		final int size = readVarInt() - 1;
+		
+		if (size < 0) {
+			return null;
+		}
+		
+		require(size);
+		final C values = factory.apply(size);
+		for (int i = 0; i < size; i++) {
+			values.add(reader.apply(this));
+		}
+		
+		return values;
+	}
+	
+	/**
+	 * @param reader Reads each value (e.g. {@code CompactInput::readBoolean})
+	 * @return The map (in the order it was written) or {@code null}
+	 */
+	public <V> Map<String, V> readMap(final Function<CompactInput, V> reader) {
+		final int size = readVarInt() - 1;
+		
+		if (size < 0) {
+			return null;
+		}
+		
+		require(size);
+		final Map<String, V> values = new LinkedHashMap<>(size * 4 / 3 + 1);
+		for (int i = 0; i < size; i++) {
+			final String key = readString();
+			values.put(key, reader.apply(this));
+		}
+		
+		return values;
+	}
+	
+	/** @return How many bytes are left */
+	public int remaining() {
+		return limit - position;
+	}
+}
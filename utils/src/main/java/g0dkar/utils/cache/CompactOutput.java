@@ -0,0 +1,147 @@
+package g0dkar.utils.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>Writes values in a compact binary format (read back by {@link CompactInput}): integers are varints (small numbers take a single
+ * byte), strings are UTF-8 prefixed by their length, and {@code null}s take a single byte (they're written as length/flag {@code 0}).</p>
+ * 
+ * @author Rafael Lins
+ * @see Codec
+ */
+public final class CompactOutput {
+	private byte[] buffer;
+	private int size;
+	
+	public CompactOutput() {
+		this(64);
+	}
+	
+	/** @param capacity Initial capacity in bytes */
+	public CompactOutput(final int capacity) {
+		buffer = new byte[Math.max(16, capacity)];
+	}
+	
+	private void ensure(final int more) {
+		if (size + more > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + more));
+		}
+	}
+	
+	public void writeByte(final int value) {
+		ensure(1);
+		buffer[size++] = (byte) value;
+	}
+	
+	/** @param value A non-negative int (as 1 to 5 bytes) */
+	public void writeVarInt(final int value) {
+		ensure(5);
+		int v = value;
+		
+		while ((v & ~0x7F) != 0) {
+			buffer[size++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		
+		buffer[size++] = (byte) v;
+	}
+	
+	/** @param value Any long (zig-zag encoded, so small negative numbers are small too) */
+	public void writeVarLong(final long value) {
+		ensure(10);
+		long v = (value << 1) ^ (value >> 63);
+		
+		while ((v & ~0x7FL) != 0) {
+			buffer[size++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		
+		buffer[size++] = (byte) v;
+	}
+	
+	/** @param value {@code null}, {@code true} or {@code false} (as a single byte) */
+	public void writeBoolean(final Boolean value) {
+		writeByte(value == null ? 0 : value ? 2 : 1);
+	}
+	
+	/** @param value A {@code Long} or {@code null} */
+	public void writeLong(final Long value) {
+		writeBoolean(value != null);
+		
+		if (value != null) {
+			writeVarLong(value);
+		}
+	}
+	
+	/** @param value An {@code Integer} or {@code null} */
+	public void writeInteger(final Integer value) {
+		writeBoolean(value != null);
+		
+		if (value != null) {
+			writeVarLong(value);
+		}
+	}
+	
+	/** @param value A string or {@code null} */
+	public void writeString(final String value) {
+		if (value == null) {
+			writeVarInt(0);
+		}
+		else {
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length + 1);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, size, bytes.length);
+			size += bytes.length;
+		}
+	}
+	
+	/**
+	 * @param values A collection or {@code null}
+	 * @param writer Writes each element (e.g. {@code CompactOutput::writeString})
+	 */
+	public <T> void writeCollection(final Collection<? extends T> values, final BiConsumer<CompactOutput, T> writer) {
+		if (values == null) {
+			writeVarInt(0);
+		}
+		else {
+			writeVarInt(values.size() + 1);
+			
+			for (final T value : values) {
+				writer.accept(this, value);
+			}
+		}
+	}
+	
+	/**
+	 * @param values A map with String keys or {@code null}
+	 * @param writer Writes each value (e.g. {@code CompactOutput::writeBoolean})
+	 */
+	public <V> void writeMap(final Map<String, ? extends V> values, final BiConsumer<CompactOutput, V> writer) {
+		if (values == null) {
+			writeVarInt(0);
+		}
+		else {
+			writeVarInt(values.size() + 1);
+			
+			for (final Map.Entry<String, ? extends V> entry : values.entrySet()) {
+				writeString(entry.getKey());
+				writer.accept(this, entry.getValue());
+			}
+		}
+	}
+	
+	/** @return How many bytes were written */
+	public int size() {
+		return size;
+	}
+	
+	/** @return A copy of what was written */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+}
@@ -0,0 +1,31 @@
+package g0dkar.utils.cache;
+
+import org.infinispan.manager.EmbeddedCacheManager;
+
+/**
+ * {@link CacheBackend} of the application server's cache container. The container owns it, so {@link #close()} doesn't stop it.
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class ContainerCacheBackend implements CacheBackend {
+	/** Where the application server binds the cache container */
+	public static final String JNDI_NAME = "java:/cache/respondeai";
+	
+	private final EmbeddedCacheManager manager;
+	
+	/** @param manager The container's cache manager */
+	public ContainerCacheBackend(final EmbeddedCacheManager manager) {
+		this.manager = manager;
+	}
+	
+	@Override
+	public EmbeddedCacheManager getManager() {
+		return manager;
+	}
+	
+	@Override
+	public String toString() {
+		return "ContainerCacheBackend[" + JNDI_NAME + "]";
+	}
+}
@@ -0,0 +1,120 @@
+package g0dkar.utils.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A lock-free histogram of durations (in nanoseconds), cheap enough to be recorded on every cache operation.</p>
+ * 
+ * <p>Values are counted in logarithmic buckets: each power of two is split in 8 sub-buckets, so percentiles are accurate to about 12.5%
+ * whatever the magnitude (from nanoseconds to minutes), using a fixed ~4KB per histogram.</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	/** @param nanos A duration (negative ones count as {@code 0}) */
+	public void record(final long nanos) {
+		final long value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+	
+	static int index(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | subBucket;
+	}
+	
+	/** @return The highest value that falls into bucket {@code index} */
+	static long upperBound(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		
+		final int exponent = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		final long lower = (long) (SUB_BUCKETS | (index & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+	
+	/**
+	 * @param percentile Which percentile ({@code 0} to {@code 100}, e.g. {@code 99.9})
+	 * @return The (approximate) value at that percentile, in nanoseconds ({@code 0} if nothing was recorded)
+	 */
+	public long getPercentile(final double percentile) {
+		final long total = count.sum();
+		
+		if (total == 0) {
+			return 0;
+		}
+		
+		final long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+		long seen = 0;
+		
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		
+		return max.get();
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/** @return Mean duration in nanoseconds */
+	public double getMean() {
+		final long total = count.sum();
+		return total > 0 ? (double) sum.sum() / total : 0;
+	}
+	
+	/** @return Highest duration in nanoseconds */
+	public long getMax() {
+		return max.get();
+	}
+	
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+	
+	/**
+	 * @param nanos A duration in nanoseconds
+	 * @return The same duration in (fractional) microseconds
+	 */
+	static double micros(final double nanos) {
+		return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d samples, mean %.1fus, p50 %.1fus, p99 %.1fus, max %.1fus", getCount(), micros(getMean()), micros(getPercentile(50)),
+				micros(getPercentile(99)), micros(getMax()));
+	}
+}
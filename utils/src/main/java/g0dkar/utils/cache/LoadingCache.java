@@ -0,0 +1,331 @@
+package g0dkar.utils.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.infinispan.Cache;
+import org.infinispan.container.entries.CacheEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>The "look it up, load it on a miss, put it back" pattern on top of an Infinispan {@link Cache}, done right:</p>
+ * 
+ * <ul>
+ * <li>Single-flight: concurrent misses for the same key (on this node) wait for one single load instead of each running its own (see
+ * {@link SingleFlight})
+ * <li>Refresh-ahead: entries close to expiring are reloaded in the background while the current value keeps being served, so a hot key
+ * expiring doesn't make every caller wait (see {@link CacheRef#refreshAhead(double)})
+ * <li>Negative caching: keys the loader found nothing for are remembered for a while (see {@link CacheRef#negativeTtl(long, TimeUnit)}) in a
+ * {@link NearCache}, which also sweeps the expired ones
+ * <li>Bulk loading: {@link #getAll(Collection, BulkLoader) getAll} reads every key from the cache at once and loads all the missing
+ * ones with a single {@link BulkLoader} call
+ * </ul>
+ * 
+ * <p>Lookups and loads are recorded in the cache's {@link CacheMetrics}.</p>
+ * 
+ * <p>Get them from {@link CacheService#getLoadingCache(CacheRef)} or just call
+ * {@link CacheService#getOrLoad(CacheRef, Object, Function)}.</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class LoadingCache<K, V> {
+	private static final Logger log = LoggerFactory.getLogger(LoadingCache.class);
+	
+	private final Cache<K, V> cache;
+	private final long lifespan;
+	private final double refreshAhead;
+	private final NearCache<K, Boolean> absent;
+	private final CacheMetrics metrics;
+	private final SingleFlight<K, V> loads = new SingleFlight<>();
+	private final Executor executor = ForkJoinPool.commonPool();
+	
+	/**
+	 * @param cache The Infinispan cache
+	 * @param lifespan How long (ms) loaded entries live ({@code 0} or less: as long as the cache's configuration says)
+	 * @param negativeTtl How long (ms) "there's no such value" lives ({@code 0} or less: not cached)
+	 * @param refreshAhead After how much of its lifespan an entry is refreshed in the background ({@code 0} or less: never)
+	 */
+	public LoadingCache(final Cache<K, V> cache, final long lifespan, final long negativeTtl, final double refreshAhead) {
+		this(cache, lifespan, negativeTtl, refreshAhead, new CacheMetrics(cache.getName()));
+	}
+	
+	/**
+	 * @param cache The Infinispan cache
+	 * @param lifespan How long (ms) loaded entries live ({@code 0} or less: as long as the cache's configuration says)
+	 * @param negativeTtl How long (ms) "there's no such value" lives ({@code 0} or less: not cached)
+	 * @param refreshAhead After how much of its lifespan an entry is refreshed in the background ({@code 0} or less: never)
+	 * @param metrics Where lookups and loads are recorded
+	 */
+	public LoadingCache(final Cache<K, V> cache, final long lifespan, final long negativeTtl, final double refreshAhead, final CacheMetrics metrics) {
+		this.cache = cache;
+		this.lifespan = lifespan;
+		this.refreshAhead = refreshAhead;
+		this.absent = negativeTtl > 0 ? new NearCache<>(negativeTtl, negativeTtl) : null;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * @param key The key
+	 * @param loader Loads the value on a miss. May return {@code null} (nothing is put into the cache then).
+	 * @return The cached or loaded value (or {@code null})
+	 */
+	public V get(final K key, final Function<? super K, ? extends V> loader) {
+		final long start = System.nanoTime();
+		final CacheEntry<K, V> entry = cache.getAdvancedCache().getCacheEntry(key);
+		
+		if (entry != null && entry.getValue() != null) {
+			metrics.hit(System.nanoTime() - start);
+			
+			if (refreshAhead > 0 && isDue(entry)) {
+				refresh(key, loader);
+			}
+			
+			return entry.getValue();
+		}
+		
+		metrics.miss(System.nanoTime() - start);
+		
+		if (absent != null && absent.contains(key)) {
+			return null;
+		}
+		
+		return load(key, loader);
+	}
+	
+	/**
+	 * Reads a key (recording the lookup) without loading it
+	 * 
+	 * @param key The key
+	 * @return The cached value or {@code null}
+	 */
+	public V getIfPresent(final K key) {
+		final long start = System.nanoTime();
+		final V value = cache.get(key);
+		
+		if (value != null) {
+			metrics.hit(System.nanoTime() - start);
+		}
+		else {
+			metrics.miss(System.nanoTime() - start);
+		}
+		
+		return value;
+	}
+	
+	private boolean isDue(final CacheEntry<K, V> entry) {
+		final long entryLifespan = entry.getLifespan();
+		final long created = entry.getCreated();
+		return entryLifespan > 0 && created > 0 && System.currentTimeMillis() >= created + (long) (entryLifespan * refreshAhead);
+	}
+	
+	private V load(final K key, final Function<? super K, ? extends V> loader) {
+		return loads.load(key, k -> loadAndStore(k, loader));
+	}
+	
+	/** Runs the loader (recording it in the metrics) and caches what it returned */
+	private V loadAndStore(final K key, final Function<? super K, ? extends V> loader) {
+		final long start = System.nanoTime();
+		try {
+			final V value = loader.apply(key);
+			metrics.loaded(System.nanoTime() - start);
+			store(key, value);
+			return value;
+		} catch (final RuntimeException | Error e) {
+			metrics.loadFailed(System.nanoTime() - start);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Gets many values at once: one {@link org.infinispan.AdvancedCache#getAll(Set) getAll} from the cache and, for the keys that weren't
+	 * there, one {@link BulkLoader#loadAll(Set) loadAll} call, whose results are written back with a single {@code putAll}. Keys being
+	 * loaded by someone else are waited for instead of loaded again.
+	 * 
+	 * @param keys The keys
+	 * @param loader Loads the missing keys
+	 * @return The values found (cached or loaded), by key, in the order of {@code keys}. Keys without a value are left out.
+	 */
+	public Map<K, V> getAll(final Collection<? extends K> keys, final BulkLoader<K, V> loader) {
+		final long start = System.nanoTime();
+		final Set<K> wanted = new LinkedHashSet<>(keys);
+		final Map<K, V> found = new HashMap<>(cache.getAdvancedCache().getAll(wanted));
+		metrics.lookup(found.size(), wanted.size() - found.size(), System.nanoTime() - start);
+		final Map<K, CompletableFuture<V>> waiting = new HashMap<>();
+		final Map<K, CompletableFuture<V>> mine = new LinkedHashMap<>();
+		
+		for (final K key : wanted) {
+			if (found.get(key) == null && (absent == null || !absent.contains(key))) {
+				final CompletableFuture<V> future = new CompletableFuture<>();
+				final CompletableFuture<V> inFlight = loads.claim(key, future);
+				
+				if (inFlight != null) {
+					waiting.put(key, inFlight);
+				}
+				else {
+					mine.put(key, future);
+				}
+			}
+		}
+		
+		if (!mine.isEmpty()) {
+			final long loadStart = System.nanoTime();
+			try {
+				final Map<K, V> result = loader.loadAll(Collections.unmodifiableSet(mine.keySet()));
+				final Map<K, V> loaded = result != null ? result : Collections.emptyMap();
+				metrics.loaded(System.nanoTime() - loadStart);
+				storeAll(mine.keySet(), loaded);
+				
+				for (final Map.Entry<K, CompletableFuture<V>> entry : mine.entrySet()) {
+					final V value = loaded.get(entry.getKey());
+					found.put(entry.getKey(), value);
+					entry.getValue().complete(value);
+				}
+			} catch (final RuntimeException | Error e) {
+				metrics.loadFailed(System.nanoTime() - loadStart);
+				for (final CompletableFuture<V> future : mine.values()) {
+					future.completeExceptionally(e);
+				}
+				throw e;
+			} finally {
+				for (final Map.Entry<K, CompletableFuture<V>> entry : mine.entrySet()) {
+					loads.release(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		
+		for (final Map.Entry<K, CompletableFuture<V>> entry : waiting.entrySet()) {
+			found.put(entry.getKey(), SingleFlight.join(entry.getValue()));
+		}
+		
+		final Map<K, V> result = new LinkedHashMap<>(wanted.size() * 4 / 3 + 1);
+		for (final K key : wanted) {
+			final V value = found.get(key);
+			
+			if (value != null) {
+				result.put(key, value);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Writes many values at once (with a single {@code putAll})
+	 * 
+	 * @param values Values by key
+	 */
+	public void putAll(final Map<? extends K, ? extends V> values) {
+		storeAll(values.keySet(), values);
+	}
+	
+	/**
+	 * Reloads a key in the background (unless it's already being loaded). Callers keep getting the current value meanwhile.
+	 * 
+	 * @param key The key
+	 * @param loader Loads the value
+	 */
+	public void refresh(final K key, final Function<? super K, ? extends V> loader) {
+		final CompletableFuture<V> future = new CompletableFuture<>();
+		
+		if (loads.claim(key, future) == null) {
+			executor.execute(() -> {
+				try {
+					future.complete(loadAndStore(key, loader));
+				} catch (final RuntimeException | Error e) {
+					future.completeExceptionally(e);
+					if (log.isWarnEnabled()) { log.warn("Error while refreshing " + key + " on cache " + cache.getName(), e); }
+				} finally {
+					loads.release(key, future);
+				}
+			});
+		}
+	}
+	
+	private void store(final K key, final V value) {
+		if (value != null) {
+			if (lifespan > 0) {
+				cache.put(key, value, lifespan, TimeUnit.MILLISECONDS);
+			}
+			else {
+				cache.put(key, value);
+			}
+			
+			if (absent != null) {
+				absent.invalidate(key);
+			}
+		}
+		else if (absent != null) {
+			absent.put(key, Boolean.TRUE);
+		}
+	}
+	
+	/** Writes the non-{@code null} values of {@code keys} with a single {@code putAll} and remembers the others as absent */
+	private void storeAll(final Set<? extends K> keys, final Map<? extends K, ? extends V> values) {
+		final Map<K, V> present = new HashMap<>(values.size() * 4 / 3 + 1);
+		
+		for (final K key : keys) {
+			final V value = values.get(key);
+			
+			if (value != null) {
+				present.put(key, value);
+				
+				if (absent != null) {
+					absent.invalidate(key);
+				}
+			}
+			else if (absent != null) {
+				absent.put(key, Boolean.TRUE);
+			}
+		}
+		
+		if (!present.isEmpty()) {
+			if (lifespan > 0) {
+				cache.putAll(present, lifespan, TimeUnit.MILLISECONDS);
+			}
+			else {
+				cache.putAll(present);
+			}
+		}
+	}
+	
+	/**
+	 * Removes a key (from the cache and from the negative entries)
+	 * 
+	 * @param key The key
+	 */
+	public void invalidate(final K key) {
+		cache.remove(key);
+		
+		if (absent != null) {
+			absent.invalidate(key);
+		}
+	}
+	
+	/** @return How long (ms) loaded entries live ({@code 0} or less: as long as the cache's configuration says) */
+	public long getLifespan() {
+		return lifespan;
+	}
+	
+	public CacheMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/** @return The Infinispan cache */
+	public Cache<K, V> getCache() {
+		return cache;
+	}
+}
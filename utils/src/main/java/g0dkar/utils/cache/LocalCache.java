@@ -0,0 +1,162 @@
+package g0dkar.utils.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A bounded, in-process LRU cache whose entries expire after a (usually short) TTL. Meant to be an L1 tier in front of Infinispan (see
+ * {@link TwoLevelCache}).</p>
+ * 
+ * <p>Entries are spread over a few independently locked segments, each one a {@link LinkedHashMap} in access order, so threads reading
+ * different keys rarely wait for one another. Each segment keeps its share of {@code maxEntries}, evicting its least recently used entry
+ * when it's full.</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class LocalCache<K, V> {
+	private static final int SEGMENTS = 16;
+	
+	private final Segment<K, V>[] segments;
+	private final long ttlMillis;
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * @param maxEntries How many entries it keeps (at most)
+	 * @param ttlMillis How long entries live after being written
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public LocalCache(final long maxEntries, final long ttlMillis) {
+		final int count = maxEntries >= SEGMENTS * 64 ? SEGMENTS : 1;
+		final int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxEntries / count));
+		
+		this.ttlMillis = ttlMillis;
+		this.segments = new Segment[count];
+		
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment<>(capacity, evictions);
+		}
+	}
+	
+	private Segment<K, V> segment(final Object key) {
+		if (segments.length == 1) {
+			return segments[0];
+		}
+		
+		final int hash = key.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+	}
+	
+	/**
+	 * @param key The key
+	 * @return The value or {@code null} if there's none (or it expired)
+	 */
+	public V get(final K key) {
+		return segment(key).get(key, System.currentTimeMillis());
+	}
+	
+	/**
+	 * @param key The key
+	 * @param value The value ({@code null} just removes the key)
+	 */
+	public void put(final K key, final V value) {
+		if (value != null) {
+			segment(key).put(key, value, System.currentTimeMillis() + ttlMillis);
+		}
+		else {
+			invalidate(key);
+		}
+	}
+	
+	/** @param key Key to remove */
+	public void invalidate(final Object key) {
+		segment(key).remove(key);
+	}
+	
+	/** Removes everything */
+	public void invalidateAll() {
+		for (final Segment<K, V> segment : segments) {
+			segment.clear();
+		}
+	}
+	
+	/** @return How many entries there are (including expired ones not yet removed) */
+	public long size() {
+		long size = 0;
+		
+		for (final Segment<K, V> segment : segments) {
+			size += segment.size();
+		}
+		
+		return size;
+	}
+	
+	/** @return How many entries were evicted to keep the cache within its bounds */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+	
+	private static final class Segment<K, V> {
+		private final Map<K, Timed<V>> entries;
+		
+		Segment(final int capacity, final LongAdder evictions) {
+			entries = new LinkedHashMap<K, Timed<V>>(Math.min(capacity, 1024), 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<K, Timed<V>> eldest) {
+					if (size() > capacity) {
+						evictions.increment();
+						return true;
+					}
+					
+					return false;
+				}
+			};
+		}
+		
+		synchronized V get(final Object key, final long now) {
+			final Timed<V> entry = entries.get(key);
+			
+			if (entry == null) {
+				return null;
+			}
+			else if (entry.expiresAt <= now) {
+				entries.remove(key);
+				return null;
+			}
+			
+			return entry.value;
+		}
+		
+		synchronized void put(final K key, final V value, final long expiresAt) {
+			entries.put(key, new Timed<>(value, expiresAt));
+		}
+		
+		synchronized void remove(final Object key) {
+			entries.remove(key);
+		}
+		
+		synchronized void clear() {
+			entries.clear();
+		}
+		
+		synchronized int size() {
+			return entries.size();
+		}
+	}
+	
+	/** A value and when it expires */
+	private static final class Timed<V> {
+		final V value;
+		final long expiresAt;
+		
+		Timed(final V value, final long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
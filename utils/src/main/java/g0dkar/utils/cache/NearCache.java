@@ -0,0 +1,197 @@
+package g0dkar.utils.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * <p>A small in-process cache meant to sit in front of slower ones (Infinispan, the database...):</p>
+ * 
+ * <ul>
+ * <li>Lock-free reads: a hit is a {@link ConcurrentHashMap#get(Object)} plus an expiration check
+ * <li>Every entry has its own expiration time (TTL)
+ * <li>Negative caching: a {@code null} returned by the loader is cached too (with its own, usually shorter, TTL) so missing keys don't hit
+ * the backend every time
+ * <li>Single-flight loading: concurrent misses for the same key wait for one single load instead of each running its own
+ * <li>Writes win over loads: a value loaded while its key was {@link #put(Object, Object) put} or {@link #invalidate(Object)
+ * invalidated} is returned to the caller but not cached (the write is newer)
+ * <li>Expired entries are swept on writes, at most once per TTL, so the map only holds what's been used lately
+ * </ul>
+ * 
+ * <p>A loader must not {@link #get(Object, Function) get} its own key (it would wait for itself).</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class NearCache<K, V> {
+	private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+	private final SingleFlight<K, V> loading = new SingleFlight<>();
+	private final CacheStats stats = new CacheStats();
+	/** Incremented on every invalidation: a loaded value isn't cached if an invalidation happened meanwhile */
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicLong nextCleanUp;
+	private final long cleanUpInterval;
+	private final long ttlMillis;
+	private final long negativeTtlMillis;
+	
+	/**
+	 * @param ttlMillis How long values live
+	 * @param negativeTtlMillis How long "there's no such value" ({@code null}) lives. {@code 0} disables negative caching.
+	 */
+	public NearCache(final long ttlMillis, final long negativeTtlMillis) {
+		this.ttlMillis = ttlMillis;
+		this.negativeTtlMillis = negativeTtlMillis;
+		this.cleanUpInterval = Math.max(1_000, negativeTtlMillis > 0 ? Math.min(ttlMillis, negativeTtlMillis) : ttlMillis);
+		this.nextCleanUp = new AtomicLong(System.currentTimeMillis() + cleanUpInterval);
+	}
+	
+	/**
+	 * Returns the cached value or loads it (only one load per key at a time: other callers wait for it).
+	 * 
+	 * @param key The key
+	 * @param loader Loads the value on a miss. May return {@code null} (which is cached as a negative entry).
+	 * @return The value or {@code null}
+	 */
+	public V get(final K key, final Function<? super K, ? extends V> loader) {
+		final Entry<V> entry = entries.get(key);
+		
+		if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+			stats.hit();
+			return entry.value;
+		}
+		
+		stats.miss();
+		return load(key, loader);
+	}
+	
+	/**
+	 * @param key The key
+	 * @return The cached value or {@code null} if there's none (or it's a negative entry or it expired)
+	 */
+	public V getIfPresent(final K key) {
+		final Entry<V> entry = entries.get(key);
+		return entry != null && entry.expiresAt > System.currentTimeMillis() ? entry.value : null;
+	}
+	
+	/**
+	 * @param key The key
+	 * @return Is there a fresh entry for this key (even a negative one)?
+	 */
+	public boolean contains(final K key) {
+		final Entry<V> entry = entries.get(key);
+		return entry != null && entry.expiresAt > System.currentTimeMillis();
+	}
+	
+	private V load(final K key, final Function<? super K, ? extends V> loader) {
+		return loading.load(key, k -> {
+			final Entry<V> current = entries.get(k);
+			final long version = invalidations.get();
+			final V value = loader.apply(k);
+			store(k, current, version, value);
+			return value;
+		});
+	}
+	
+	/** Caches a loaded value unless {@code key} was written (it's not {@code current} anymore) or invalidated since the load started */
+	private void store(final K key, final Entry<V> current, final long version, final V value) {
+		final long ttl = value != null ? ttlMillis : negativeTtlMillis;
+		final long now = System.currentTimeMillis();
+		
+		if (version != invalidations.get()) {
+			return;
+		}
+		else if (ttl <= 0) {
+			if (current != null) {
+				entries.remove(key, current);
+			}
+		}
+		else if (current != null) {
+			entries.replace(key, current, new Entry<>(value, now + ttl));
+		}
+		else {
+			entries.putIfAbsent(key, new Entry<>(value, now + ttl));
+		}
+		
+		cleanUpIfDue(now);
+	}
+	
+	/**
+	 * Caches a value with the default TTL (or the negative one, if it's {@code null})
+	 * 
+	 * @param key The key
+	 * @param value The value (may be {@code null})
+	 */
+	public void put(final K key, final V value) {
+		put(key, value, value != null ? ttlMillis : negativeTtlMillis);
+	}
+	
+	/**
+	 * Caches a value with a specific TTL
+	 * 
+	 * @param key The key
+	 * @param value The value (may be {@code null})
+	 * @param ttlMillis How long it lives. {@code 0} (or less) just removes the key.
+	 */
+	public void put(final K key, final V value, final long ttlMillis) {
+		final long now = System.currentTimeMillis();
+		
+		if (ttlMillis > 0) {
+			entries.put(key, new Entry<>(value, now + ttlMillis));
+		}
+		else {
+			invalidate(key);
+		}
+		
+		cleanUpIfDue(now);
+	}
+	
+	/** @param key Key to remove */
+	public void invalidate(final K key) {
+		invalidations.incrementAndGet();
+		entries.remove(key);
+	}
+	
+	/** Removes everything */
+	public void invalidateAll() {
+		invalidations.incrementAndGet();
+		entries.clear();
+	}
+	
+	/** Removes the expired entries (done on writes too, at most once per TTL) */
+	public void cleanUp() {
+		final long now = System.currentTimeMillis();
+		entries.values().removeIf(entry -> entry.expiresAt <= now);
+	}
+	
+	private void cleanUpIfDue(final long now) {
+		final long next = nextCleanUp.get();
+		
+		if (now >= next && nextCleanUp.compareAndSet(next, now + cleanUpInterval)) {
+			cleanUp();
+		}
+	}
+	
+	/** @return How many entries there are (including expired ones not yet cleaned up) */
+	public int size() {
+		return entries.size();
+	}
+	
+	/** @return Hits and misses of {@link #get(Object, Function) get} (negative entries count as hits) */
+	public CacheStats getStats() {
+		return stats;
+	}
+	
+	/** Immutable, so it's safely published through the map */
+	private static final class Entry<V> {
+		final V value;
+		final long expiresAt;
+		
+		Entry(final V value, final long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
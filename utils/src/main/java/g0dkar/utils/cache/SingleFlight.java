@@ -0,0 +1,81 @@
+package g0dkar.utils.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Single-flight loading: concurrent loads of the same key wait for one single load instead of each running its own. The building block of
+ * {@link NearCache} and {@link LoadingCache}.
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+final class SingleFlight<K, V> {
+	private final Map<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+	
+	/**
+	 * Runs {@code loader} or, if {@code key} is already being loaded, waits for that load instead. A loader must not load its own key (it
+	 * would wait for itself).
+	 * 
+	 * @param key The key
+	 * @param loader Loads (and usually caches) the value
+	 * @return The loaded value
+	 */
+	V load(final K key, final Function<? super K, ? extends V> loader) {
+		final CompletableFuture<V> future = new CompletableFuture<>();
+		final CompletableFuture<V> inFlight = claim(key, future);
+		
+		if (inFlight != null) {
+			return join(inFlight);
+		}
+		
+		try {
+			final V value = loader.apply(key);
+			future.complete(value);
+			return value;
+		} catch (final RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			release(key, future);
+		}
+	}
+	
+	/**
+	 * Claims a key's load (for loads that aren't a single {@link #load(Object, Function) load} call, e.g. bulk or background ones). Whoever
+	 * claims it must complete {@code future} and then {@link #release(Object, CompletableFuture) release} it.
+	 * 
+	 * @param key The key
+	 * @param future Completed with the value once it's loaded
+	 * @return {@code null} if the key was claimed, otherwise the load already in flight (to be {@link #join(CompletableFuture) waited} for)
+	 */
+	CompletableFuture<V> claim(final K key, final CompletableFuture<V> future) {
+		return loading.putIfAbsent(key, future);
+	}
+	
+	/**
+	 * @param key The key
+	 * @param future The future it was {@link #claim(Object, CompletableFuture) claimed} with
+	 */
+	void release(final K key, final CompletableFuture<V> future) {
+		loading.remove(key, future);
+	}
+	
+	/**
+	 * @param future A load in flight
+	 * @return Its value
+	 * @throws RuntimeException Whatever the load threw
+	 */
+	static <V> V join(final CompletableFuture<V> future) {
+		try {
+			return future.join();
+		} catch (final CompletionException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package g0dkar.utils.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.eviction.EvictionType;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+
+/**
+ * <p>In-process {@link CacheBackend}: a local-only (non-clustered) cache manager started (and stopped) by this backend, no application
+ * server needed. Every cache is bounded ({@code maxEntries}, least recently used entries are evicted first) and its entries expire
+ * ({@code lifespan}), unless its {@link CacheRef} says otherwise.</p>
+ * 
+ * <pre>
+ * try (CacheService cs = new CacheService(new StandaloneCacheBackend())) {
+ * 	final Configuration conf = new Configuration(ps, cs, log, env, new ConfigurationCache(cs));
+ * 	...
+ * }
+ * </pre>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class StandaloneCacheBackend implements CacheBackend {
+	/** Default size of each cache */
+	public static final long DEFAULT_MAX_ENTRIES = 10_000;
+	/** Default lifespan (ms) of cache entries */
+	public static final long DEFAULT_LIFESPAN = TimeUnit.HOURS.toMillis(1);
+	/** How often (ms) expired entries are purged */
+	private static final long EXPIRATION_INTERVAL = 1_000;
+	private static final String DEFAULT_CACHE = "default";
+	
+	private final DefaultCacheManager manager;
+	
+	/** Caches of {@link #DEFAULT_MAX_ENTRIES} entries living {@link #DEFAULT_LIFESPAN} */
+	public StandaloneCacheBackend() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_LIFESPAN, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @param maxEntries Default size of each cache ({@code 0} or less: unbounded)
+	 * @param lifespan Default lifespan of cache entries ({@code 0} or less: they don't expire)
+	 * @param unit Lifespan unit
+	 */
+	public StandaloneCacheBackend(final long maxEntries, final long lifespan, final TimeUnit unit) {
+		final GlobalConfigurationBuilder global = new GlobalConfigurationBuilder().nonClusteredDefault();
+		global.defaultCacheName(DEFAULT_CACHE);
+		global.globalJmxStatistics().disable();
+		
+		final ConfigurationBuilder defaults = new ConfigurationBuilder();
+		defaults.clustering().cacheMode(CacheMode.LOCAL);
+		defaults.expiration().wakeUpInterval(EXPIRATION_INTERVAL);
+		
+		if (maxEntries > 0) {
+			defaults.memory().evictionType(EvictionType.COUNT).size(maxEntries);
+		}
+		
+		if (lifespan > 0) {
+			defaults.expiration().lifespan(unit.toMillis(lifespan));
+		}
+		
+		manager = new DefaultCacheManager(global.build(), defaults.build());
+	}
+	
+	@Override
+	public EmbeddedCacheManager getManager() {
+		return manager;
+	}
+	
+	/** Stops the cache manager (and every cache) */
+	@Override
+	public void close() {
+		manager.stop();
+	}
+	
+	@Override
+	public String toString() {
+		return "StandaloneCacheBackend[" + manager.getCacheNames() + "]";
+	}
+}
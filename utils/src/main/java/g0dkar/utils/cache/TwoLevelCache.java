@@ -0,0 +1,293 @@
+package g0dkar.utils.cache;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.infinispan.Cache;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryExpired;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntryEvent;
+
+/**
+ * <p>A two-level cache: a bounded, short-lived {@link LocalCache} (L1) on each node in front of an Infinispan {@link Cache} (L2). Repeated
+ * reads of the same keys are served from the heap without going through Infinispan's interceptor chain (or the network, in clustered
+ * mode).</p>
+ * 
+ * <p>L1 entries are dropped whenever Infinispan reports that their key was written, removed, expired or invalidated (on this node or,
+ * for clustered caches, any other), so L1 is at most {@code ttl} behind L2 in the worst case. Each tier has its own {@link CacheStats}, and
+ * L2 lookups are recorded in the cache's {@link CacheMetrics} too.</p>
+ * 
+ * <p>{@link #get(Object, Function) Loading} (and {@link #getAll(Collection, BulkLoader) bulk loading}) reads go through the cache's {@link LoadingCache} on an L1 miss (so they get its
+ * single-flight, negative caching and refresh-ahead) and put what it returns into L1.</p>
+ * 
+ * <p>Get them from {@link CacheService#getTwoLevelCache(CacheRef)}.</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class TwoLevelCache<K, V> {
+	private final LocalCache<K, V> l1;
+	private final Cache<K, V> l2;
+	private final LoadingCache<K, V> loading;
+	private final CacheStats l1Stats = new CacheStats();
+	private final CacheStats l2Stats = new CacheStats();
+	/** Incremented on every L1 invalidation: a value read from L2 isn't copied into L1 if an invalidation happened meanwhile */
+	private final AtomicLong invalidations = new AtomicLong();
+	private final InvalidationListener listener = new InvalidationListener(this);
+	
+	/**
+	 * @param l2 The Infinispan cache
+	 * @param maxEntries How many entries L1 keeps
+	 * @param ttlMillis How long L1 entries live
+	 */
+	public TwoLevelCache(final Cache<K, V> l2, final long maxEntries, final long ttlMillis) {
+		this(new LoadingCache<>(l2, 0, 0, 0), maxEntries, ttlMillis);
+	}
+	
+	/**
+	 * @param loading The {@link LoadingCache} of the Infinispan cache (L2)
+	 * @param maxEntries How many entries L1 keeps
+	 * @param ttlMillis How long L1 entries live
+	 */
+	public TwoLevelCache(final LoadingCache<K, V> loading, final long maxEntries, final long ttlMillis) {
+		this.l1 = new LocalCache<>(maxEntries, ttlMillis);
+		this.l2 = loading.getCache();
+		this.loading = loading;
+		l2.addListener(listener);
+	}
+	
+	/**
+	 * @param key The key
+	 * @return The value (from L1 or L2) or {@code null} if there's none
+	 */
+	public V get(final K key) {
+		V value = l1.get(key);
+		
+		if (value != null) {
+			l1Stats.hit();
+			return value;
+		}
+		
+		l1Stats.miss();
+		final long version = invalidations.get();
+		value = loading.getIfPresent(key);
+		
+		if (value != null) {
+			l2Stats.hit();
+			
+			if (version == invalidations.get()) {
+				l1.put(key, value);
+			}
+		}
+		else {
+			l2Stats.miss();
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Gets a value from L1 or, on a miss, from the {@link LoadingCache} (which loads and caches it in L2 if it isn't there)
+	 * 
+	 * @param key The key
+	 * @param loader Loads the value on a miss. May return {@code null} (nothing is cached then).
+	 * @return The cached or loaded value (or {@code null})
+	 */
+	public V get(final K key, final Function<? super K, ? extends V> loader) {
+		V value = l1.get(key);
+		
+		if (value != null) {
+			l1Stats.hit();
+			return value;
+		}
+		
+		l1Stats.miss();
+		final long version = invalidations.get();
+		// Writing what was loaded into L2 invalidates its L1 entry, so a value loaded right here goes into L1 regardless
+		final AtomicBoolean loaded = new AtomicBoolean();
+		value = loading.get(key, k -> {
+			loaded.set(true);
+			return loader.apply(k);
+		});
+		
+		if (value != null && (loaded.get() || version == invalidations.get())) {
+			l1.put(key, value);
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Gets many values at once: the ones in L1 from there and the rest with a single {@link LoadingCache#getAll(Collection, BulkLoader)
+	 * getAll}, whose values are put into L1
+	 * 
+	 * @param keys The keys
+	 * @param loader Loads the keys that aren't in L2 either
+	 * @return The values found (cached or loaded), by key, in the order of {@code keys}. Keys without a value are left out.
+	 */
+	public Map<K, V> getAll(final Collection<? extends K> keys, final BulkLoader<K, V> loader) {
+		final Set<K> wanted = new LinkedHashSet<>(keys);
+		final Map<K, V> found = new LinkedHashMap<>(wanted.size() * 4 / 3 + 1);
+		final Set<K> missing = new LinkedHashSet<>();
+		
+		for (final K key : wanted) {
+			final V value = l1.get(key);
+			
+			if (value != null) {
+				l1Stats.hit();
+				found.put(key, value);
+			}
+			else {
+				l1Stats.miss();
+				missing.add(key);
+			}
+		}
+		
+		if (missing.isEmpty()) {
+			return found;
+		}
+		
+		final long version = invalidations.get();
+		final Set<K> loaded = new HashSet<>();
+		final Map<K, V> values = loading.getAll(missing, toLoad -> {
+			loaded.addAll(toLoad);
+			return loader.loadAll(toLoad);
+		});
+		final boolean unchanged = version == invalidations.get();
+		
+		for (final Map.Entry<K, V> entry : values.entrySet()) {
+			if (unchanged || loaded.contains(entry.getKey())) {
+				l1.put(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		final Map<K, V> result = new LinkedHashMap<>(wanted.size() * 4 / 3 + 1);
+		for (final K key : wanted) {
+			final V value = found.containsKey(key) ? found.get(key) : values.get(key);
+			
+			if (value != null) {
+				result.put(key, value);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @param key The key
+	 * @return Is there a value for this key (in L1 or L2)?
+	 */
+	public boolean containsKey(final K key) {
+		return get(key) != null;
+	}
+	
+	/**
+	 * Writes to L2 (and L1)
+	 * 
+	 * @param key The key
+	 * @param value The value
+	 */
+	public void put(final K key, final V value) {
+		l2.put(key, value);
+		l1.put(key, value);
+	}
+	
+	/**
+	 * Removes from L2 (and L1)
+	 * 
+	 * @param key The key
+	 */
+	public void remove(final K key) {
+		l2.remove(key);
+		invalidate(key);
+	}
+	
+	/** @param key Key to drop from L1 only */
+	public void invalidate(final Object key) {
+		invalidations.incrementAndGet();
+		l1.invalidate(key);
+	}
+	
+	/** Drops everything from L1 only */
+	public void invalidateAll() {
+		invalidations.incrementAndGet();
+		l1.invalidateAll();
+	}
+	
+	/** Stops listening to L2 (L1 isn't invalidated anymore, so stop using this cache too) */
+	public void close() {
+		l2.removeListener(listener);
+		l1.invalidateAll();
+	}
+	
+	/** @return The Infinispan cache (L2) */
+	public Cache<K, V> getL2() {
+		return l2;
+	}
+	
+	/** @return The {@link LoadingCache} of L2 */
+	public LoadingCache<K, V> getLoadingCache() {
+		return loading;
+	}
+	
+	public CacheStats getL1Stats() {
+		return l1Stats;
+	}
+	
+	public CacheStats getL2Stats() {
+		return l2Stats;
+	}
+	
+	/** @return How many entries there are in L1 */
+	public long getL1Size() {
+		return l1.size();
+	}
+	
+	/** @return How many entries L1 evicted to stay within its bounds */
+	public long getL1Evictions() {
+		return l1.getEvictions();
+	}
+	
+	@Override
+	public String toString() {
+		return l2.getName() + ": L1 " + l1Stats + ", L2 " + l2Stats;
+	}
+	
+	/**
+	 * Drops L1 entries when their key changes in L2 (Infinispan requires listeners to be public). Observes "pre" events too because
+	 * Infinispan only sends those for invalidations.
+	 * 
+	 * @author Rafael Lins
+	 *
+	 */
+	@Listener(observation = Listener.Observation.BOTH)
+	public static class InvalidationListener {
+		private final TwoLevelCache<?, ?> cache;
+		
+		InvalidationListener(final TwoLevelCache<?, ?> cache) {
+			this.cache = cache;
+		}
+		
+		@CacheEntryCreated
+		@CacheEntryModified
+		@CacheEntryRemoved
+		@CacheEntryExpired
+		@CacheEntryInvalidated
+		public void changed(final CacheEntryEvent<?, ?> event) {
+			cache.invalidate(event.getKey());
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package g0dkar.utils.jpa;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a {@link PersistenceService#persistAll(Iterable, int) bulk write} did: how many entities, in how many batches and how long it took.
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class BulkResult {
+	private final long count;
+	private final long batches;
+	private final long nanos;
+	
+	public BulkResult(final long count, final long batches, final long nanos) {
+		this.count = count;
+		this.batches = batches;
+		this.nanos = nanos;
+	}
+	
+	/** @return How many entities were written */
+	public long getCount() {
+		return count;
+	}
+	
+	/** @return How many times the persistence context was flushed (and cleared) */
+	public long getBatches() {
+		return batches;
+	}
+	
+	/** @return How long it took, in milliseconds */
+	public long getMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+	
+	/** @return Entities written per second */
+	public double getRate() {
+		return nanos > 0 ? count * 1e9 / nanos : 0;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d entities in %d batches, %dms (%.0f/s)", count, batches, getMillis(), getRate());
+	}
+}
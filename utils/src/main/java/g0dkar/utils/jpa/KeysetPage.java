@@ -0,0 +1,65 @@
+package g0dkar.utils.jpa;
+
+import java.util.List;
+
+/**
+ * A page of {@link KeysetQuery keyset pagination}: its entities and the key (and id, if the key isn't unique) to pass on to get the next
+ * one.
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <T> Entity type
+ * @param <K> Key type
+ */
+public class KeysetPage<T, K> {
+	private final List<T> items;
+	private final K lastKey;
+	private final Object lastId;
+	private final boolean hasNext;
+	
+	public KeysetPage(final List<T> items, final K lastKey, final boolean hasNext) {
+		this(items, lastKey, null, hasNext);
+	}
+	
+	public KeysetPage(final List<T> items, final K lastKey, final Object lastId, final boolean hasNext) {
+		this.items = items;
+		this.lastKey = lastKey;
+		this.lastId = lastId;
+		this.hasNext = hasNext;
+	}
+	
+	public List<T> getItems() {
+		return items;
+	}
+	
+	/** @return Key of the last entity of this page (the "after" of the next page), or the "after" of this page if it's empty */
+	public K getLastKey() {
+		return lastKey;
+	}
+	
+	/**
+	 * @return Id of the last entity of this page (or the "after" id of this page if it's empty): the tie-breaker between entities with the
+	 *         same key. {@code null} if the key is the id.
+	 */
+	public Object getLastId() {
+		return lastId;
+	}
+	
+	/** @return Is there a next page? */
+	public boolean hasNext() {
+		return hasNext;
+	}
+	
+	public boolean isEmpty() {
+		return items.isEmpty();
+	}
+	
+	public int size() {
+		return items.size();
+	}
+	
+	@Override
+	public String toString() {
+		return items.size() + " items, last key " + lastKey + (hasNext ? ", more to come" : ", last page");
+	}
+}
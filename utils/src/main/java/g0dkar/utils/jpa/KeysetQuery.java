@@ -0,0 +1,271 @@
+package g0dkar.utils.jpa;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+
+/**
+ * <p>Keyset ("seek") pagination: each page is {@code WHERE key > :lastKey ORDER BY key LIMIT size}, so it costs the same (an index range
+ * scan) whether it's the first or the millionth page, unlike {@code setFirstResult()} whose OFFSET has the database read and throw away
+ * every row before the page. Pages are also stable: rows inserted or deleted meanwhile don't shift later pages.</p>
+ * 
+ * <p>The key should be indexed (for the constant cost), e.g. the id. If it isn't the id, the id breaks ties between entities with the same key:
+ * pages are ordered by {@code (key, id)} and continue from {@code key > :lastKey OR (key = :lastKey AND id > :lastId)}, so no entity is
+ * skipped or repeated at page boundaries (index {@code (key, id)} for that). Entities are referred to as {@code e} in conditions:</p>
+ * 
+ * <pre>
+ * KeysetQuery&lt;User, Long&gt; users = ps.keyset(User.class, "id", User::getId).where("e.active = :active").setParameter("active", true);
+ * KeysetPage&lt;User, Long&gt; page = users.page(lastSeenId, 50); // lastSeenId == null: first page
+ * 
+ * users.clearBetweenPages(true).stream(500).forEach(...); // batch job over every active user
+ * </pre>
+ * 
+ * <p>Get them from {@link PersistenceService#keyset(Class, String, Function)}.</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <T> Entity type
+ * @param <K> Key type
+ */
+public class KeysetQuery<T, K> {
+	private static final String AFTER = "keysetAfter";
+	private static final String AFTER_ID = "keysetAfterId";
+	
+	private final EntityManager entityManager;
+	private final Class<T> entityClass;
+	private final String keyAttribute;
+	private final Function<? super T, ? extends K> key;
+	/** The id attribute, if it isn't the key (so it breaks the key's ties) */
+	private final String idAttribute;
+	private final Map<String, Object> parameters = new LinkedHashMap<>();
+	private String condition;
+	private boolean descending;
+	private boolean clearBetweenPages;
+	
+	/**
+	 * @param entityManager The entity manager
+	 * @param entityClass The entity
+	 * @param keyAttribute The attribute pages are ordered by, e.g. {@code "id"}
+	 * @param key Reads the key off an entity, e.g. {@code User::getId}
+	 * @throws IllegalArgumentException The key isn't the id and the entity has a composite one (so there's nothing to break ties with)
+	 */
+	public KeysetQuery(final EntityManager entityManager, final Class<T> entityClass, final String keyAttribute, final Function<? super T, ? extends K> key) {
+		this.entityManager = entityManager;
+		this.entityClass = entityClass;
+		this.keyAttribute = keyAttribute;
+		this.key = key;
+		this.idAttribute = idAttribute(entityManager.getMetamodel().entity(entityClass), keyAttribute);
+	}
+	
+	private static String idAttribute(final EntityType<?> entity, final String keyAttribute) {
+		if (!entity.hasSingleIdAttribute()) {
+			throw new IllegalArgumentException(entity.getName() + " has a composite id: keyset pagination over it needs a unique key, ties can't be broken");
+		}
+		
+		for (final SingularAttribute<?, ?> attribute : entity.getSingularAttributes()) {
+			if (attribute.isId()) {
+				return attribute.getName().equals(keyAttribute) ? null : attribute.getName();
+			}
+		}
+		
+		throw new IllegalArgumentException(entity.getName() + " has no id attribute");
+	}
+	
+	/**
+	 * @param condition A JPQL condition on {@code e} (the entity), e.g. {@code "e.active = :active"}
+	 * @return {@code this}
+	 */
+	public KeysetQuery<T, K> where(final String condition) {
+		this.condition = condition;
+		return this;
+	}
+	
+	/**
+	 * @param name Name of a parameter of the {@link #where(String) condition}
+	 * @param value Its value
+	 * @return {@code this}
+	 */
+	public KeysetQuery<T, K> setParameter(final String name, final Object value) {
+		parameters.put(name, value);
+		return this;
+	}
+	
+	/** @return {@code this}, paging from the highest key to the lowest */
+	public KeysetQuery<T, K> descending() {
+		this.descending = true;
+		return this;
+	}
+	
+	/**
+	 * @param clearBetweenPages Clear the persistence context before each page {@link #pages(int) iterated} but the first (for batch jobs
+	 *            over lots of entities: heap use stays constant, but entities from earlier pages get detached)
+	 * @return {@code this}
+	 */
+	public KeysetQuery<T, K> clearBetweenPages(final boolean clearBetweenPages) {
+		this.clearBetweenPages = clearBetweenPages;
+		return this;
+	}
+	
+	/**
+	 * @param after Key of the last entity of the previous page ({@code null}: first page)
+	 * @param size How many entities per page
+	 * @return The page
+	 * @throws IllegalArgumentException The key isn't the id (so {@link #page(Object, Object, int) the id is needed too})
+	 */
+	public KeysetPage<T, K> page(final K after, final int size) {
+		if (after != null && idAttribute != null) {
+			throw new IllegalArgumentException("The key (" + keyAttribute + ") isn't the id: pass the id of the last entity too");
+		}
+		
+		return page(after, null, size);
+	}
+	
+	/**
+	 * @param after Key of the last entity of the previous page ({@code null}: first page)
+	 * @param afterId Id of the last entity of the previous page (ignored if the key is the id)
+	 * @param size How many entities per page
+	 * @return The page
+	 */
+	public KeysetPage<T, K> page(final K after, final Object afterId, final int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size must be positive: " + size);
+		}
+		else if (after != null && idAttribute != null && afterId == null) {
+			throw new IllegalArgumentException("The key (" + keyAttribute + ") isn't the id: the id of the last entity is needed too");
+		}
+		
+		final TypedQuery<T> query = entityManager.createQuery(jpql(after != null), entityClass);
+		
+		for (final Map.Entry<String, Object> parameter : parameters.entrySet()) {
+			query.setParameter(parameter.getKey(), parameter.getValue());
+		}
+		
+		if (after != null) {
+			query.setParameter(AFTER, after);
+			
+			if (idAttribute != null) {
+				query.setParameter(AFTER_ID, afterId);
+			}
+		}
+		
+		// One more than asked for, to know whether there's a next page without a COUNT
+		final List<T> items = query.setMaxResults(size + 1).getResultList();
+		final boolean hasNext = items.size() > size;
+		final List<T> page = hasNext ? items.subList(0, size) : items;
+		
+		if (page.isEmpty()) {
+			return new KeysetPage<>(page, after, afterId, false);
+		}
+		
+		final T last = page.get(page.size() - 1);
+		final Object lastId = idAttribute != null ? entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(last) : null;
+		return new KeysetPage<>(page, key.apply(last), lastId, hasNext);
+	}
+	
+	private String jpql(final boolean after) {
+		final StringBuilder jpql = new StringBuilder("SELECT e FROM ").append(entityManager.getMetamodel().entity(entityClass).getName()).append(" e");
+		
+		if (condition != null || after) {
+			jpql.append(" WHERE ");
+			
+			if (condition != null) {
+				jpql.append('(').append(condition).append(')');
+			}
+			
+			if (after) {
+				final String beyond = descending ? " < :" : " > :";
+				jpql.append(condition != null ? " AND " : "");
+				
+				if (idAttribute == null) {
+					jpql.append("e.").append(keyAttribute).append(beyond).append(AFTER);
+				}
+				else {
+					jpql.append("(e.").append(keyAttribute).append(beyond).append(AFTER).append(" OR (e.").append(keyAttribute).append(" = :").append(AFTER)
+							.append(" AND e.").append(idAttribute).append(beyond).append(AFTER_ID).append("))");
+				}
+			}
+		}
+		
+		final String direction = descending ? " DESC" : " ASC";
+		jpql.append(" ORDER BY e.").append(keyAttribute).append(direction);
+		
+		if (idAttribute != null) {
+			jpql.append(", e.").append(idAttribute).append(direction);
+		}
+		
+		return jpql.toString();
+	}
+	
+	/**
+	 * @param size How many entities per page
+	 * @return Every page, from the first to the last, each one fetched only when asked for
+	 */
+	public Iterator<KeysetPage<T, K>> pages(final int size) {
+		return pages(null, size);
+	}
+	
+	/**
+	 * @param after Key of the last entity already processed ({@code null}: from the start), e.g. to resume a batch job
+	 * @param size How many entities per page
+	 * @return Every page after {@code after}, each one fetched only when asked for
+	 * @throws IllegalArgumentException The key isn't the id (so {@link #pages(Object, Object, int) the id is needed too})
+	 */
+	public Iterator<KeysetPage<T, K>> pages(final K after, final int size) {
+		if (after != null && idAttribute != null) {
+			throw new IllegalArgumentException("The key (" + keyAttribute + ") isn't the id: pass the id of the last entity too");
+		}
+		
+		return pages(after, null, size);
+	}
+	
+	/**
+	 * @param after Key of the last entity already processed ({@code null}: from the start), e.g. to resume a batch job
+	 * @param afterId Id of the last entity already processed (ignored if the key is the id)
+	 * @param size How many entities per page
+	 * @return Every page after {@code after}, each one fetched only when asked for
+	 */
+	public Iterator<KeysetPage<T, K>> pages(final K after, final Object afterId, final int size) {
+		return new Iterator<KeysetPage<T, K>>() {
+			private KeysetPage<T, K> previous;
+			
+			@Override
+			public boolean hasNext() {
+				return previous == null || previous.hasNext();
+			}
+			
+			@Override
+			public KeysetPage<T, K> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				
+				if (previous != null && clearBetweenPages) {
+					entityManager.clear();
+				}
+				
+				previous = previous != null ? page(previous.getLastKey(), previous.getLastId(), size) : page(after, afterId, size);
+				return previous;
+			}
+		};
+	}
+	
+	/**
+	 * @param size How many entities per page
+	 * @return Every entity, fetched a page at a time
+	 */
+	public Stream<T> stream(final int size) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages(size), Spliterator.ORDERED), false).flatMap(page -> page.getItems().stream());
+	}
+}
@@ -0,0 +1,149 @@
+package g0dkar.utils.jpa;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.persistence.Query;
+
+/**
+ * Iterates over a query's results a page ({@code fetchSize} rows) at a time, so only one page is ever in memory. Honors the query's own
+ * first/max results. The query must have a stable {@code ORDER BY}, otherwise rows may be skipped or repeated between pages. Each page is
+ * a new query that skips every row before it, so pages get slower the deeper they are: it's the fallback for providers without cursors
+ * (see {@link ScrollingIterator}).
+ * 
+ * <p>The query's first/max results and hints are changed while iterating and put back once it's exhausted or {@link #close() closed}.</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <T> Result type
+ */
+final class PagedIterator<T> implements Iterator<T> {
+	/** Hints asking JPA providers to fetch {@code fetchSize} rows per round trip (unknown hints are ignored by providers) */
+	private static final String[] FETCH_SIZE_HINTS = { "org.hibernate.fetchSize", "eclipselink.jdbc.fetch-size" };
+	/** Hints asking JPA providers not to keep snapshots of the entities for dirty checking */
+	private static final String[] READ_ONLY_HINTS = { "org.hibernate.readOnly", "eclipselink.read-only" };
+	/** What the hints above mean when they aren't set (a hint can't be taken out of a query, only set back to that) */
+	private static final Map<String, Object> HINT_DEFAULTS = new HashMap<>();
+	static {
+		for (final String hint : FETCH_SIZE_HINTS) {
+			HINT_DEFAULTS.put(hint, 0);
+		}
+		
+		for (final String hint : READ_ONLY_HINTS) {
+			HINT_DEFAULTS.put(hint, Boolean.FALSE);
+		}
+	}
+	
+	private final Query query;
+	private final int fetchSize;
+	private final Runnable beforeNextPage;
+	private final int firstResult;
+	private final int maxResults;
+	private final Map<String, Object> hintsBefore = new HashMap<>();
+	private List<T> page;
+	private int index;
+	private int fetched;
+	private boolean last;
+	private boolean closed;
+	
+	/**
+	 * @param query The query
+	 * @param fetchSize Rows per page
+	 * @param readOnly Are the results only going to be read (e.g. a report)?
+	 * @param beforeNextPage Runs before each page but the first (e.g. clearing the persistence context), may be {@code null}
+	 */
+	PagedIterator(final Query query, final int fetchSize, final boolean readOnly, final Runnable beforeNextPage) {
+		if (fetchSize < 1) {
+			throw new IllegalArgumentException("fetchSize must be positive: " + fetchSize);
+		}
+		
+		this.query = query;
+		this.fetchSize = fetchSize;
+		this.beforeNextPage = beforeNextPage;
+		this.firstResult = query.getFirstResult();
+		this.maxResults = query.getMaxResults();
+		
+		for (final String hint : FETCH_SIZE_HINTS) {
+			setHint(hint, fetchSize);
+		}
+		
+		if (readOnly) {
+			for (final String hint : READ_ONLY_HINTS) {
+				setHint(hint, Boolean.TRUE);
+			}
+		}
+	}
+	
+	private void setHint(final String hint, final Object value) {
+		final Object before = query.getHints().get(hint);
+		hintsBefore.put(hint, before != null ? before : HINT_DEFAULTS.get(hint));
+		query.setHint(hint, value);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean hasNext() {
+		if (page != null && index < page.size()) {
+			return true;
+		}
+		
+		if (closed || last || fetched >= maxResults) {
+			close();
+			return false;
+		}
+		
+		if (page != null && beforeNextPage != null) {
+			beforeNextPage.run();
+		}
+		
+		final int size = Math.min(fetchSize, maxResults - fetched);
+		page = query.setFirstResult(firstResult + fetched).setMaxResults(size).getResultList();
+		index = 0;
+		fetched += page.size();
+		last = page.size() < size;
+		return !page.isEmpty() || closeAndFalse();
+	}
+	
+	private boolean closeAndFalse() {
+		close();
+		return false;
+	}
+	
+	/** Puts the query's first/max results and hints back as they were (done once it's exhausted too) */
+	public void close() {
+		if (!closed) {
+			closed = true;
+			page = null;
+			query.setFirstResult(firstResult).setMaxResults(maxResults);
+			
+			for (final Map.Entry<String, Object> hint : hintsBefore.entrySet()) {
+				query.setHint(hint.getKey(), hint.getValue());
+			}
+		}
+	}
+	
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		
+		return page.get(index++);
+	}
+	
+	/**
+	 * @param iterator The iterator
+	 * @param close Closes it
+	 * @return A sequential stream over its results, which closes it when closed
+	 */
+	static <T> Stream<T> stream(final Iterator<T> iterator, final Runnable close) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false).onClose(close);
+	}
+}
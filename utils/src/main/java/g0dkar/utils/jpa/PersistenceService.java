@@ -1,5 +1,6 @@
 package g0dkar.utils.jpa;
 
+import java.lang.reflect.Method;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -7,6 +8,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import javax.faces.bean.RequestScoped;
 import javax.persistence.EntityManager;
@@ -26,6 +30,11 @@ import javax.persistence.TypedQuery;
  */
 @RequestScoped
 public class PersistenceService {
+	/** Default batch size of {@link #persistAll(Iterable, int) bulk writes} */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	/** Default fetch size of {@link NiceQuery#stream() streamed} query results */
+	public static final int DEFAULT_FETCH_SIZE = 1_000;
+	
 	@PersistenceContext
 	private EntityManager entityManager;
 	
@@ -37,6 +46,12 @@ public class PersistenceService {
 		entityManager.persist(entity);
 	}
 	
+	/**
+	 * Persists every entity in the same persistence context (which keeps growing). For big collections use
+	 * {@link #persistAll(Iterable, int)}.
+	 * 
+	 * @param entities The entities
+	 */
 	public void persist(final Collection<?> entities) {
 		for (final Object entity : entities) {
 			persist(entity);
@@ -47,6 +62,13 @@ public class PersistenceService {
 		return entityManager.merge(entity);
 	}
 	
+	/**
+	 * Merges every entity in the same persistence context (which keeps growing). For big collections use
+	 * {@link #mergeAll(Iterable, int)}.
+	 * 
+	 * @param entities The entities
+	 * @return The merged (managed) entities
+	 */
 	public <T> Collection<T> merge(final Collection<T> entities) {
 		Collection<T> merged;
 		try {
@@ -61,6 +83,117 @@ public class PersistenceService {
 		
 		return merged;
 	}
+	
+	/**
+	 * <p>Persists lots of entities in constant memory: the persistence context is flushed and cleared every {@code batchSize} entities
+	 * and JDBC batching is turned on (with that same size) meanwhile, so inserts go out {@code batchSize} at a time. Must run within a
+	 * transaction.</p>
+	 * 
+	 * <p>Once this returns the entities are detached. Entities whose IDs are generated by the database ({@code IDENTITY}) can't be
+	 * batch-inserted by most JPA providers: prefer sequences (with an {@code allocationSize} of about {@code batchSize}) for them.</p>
+	 * 
+	 * @param entities The entities (e.g. lazily read from a file: they're only iterated once)
+	 * @param batchSize How many entities per batch
+	 * @return How many entities were persisted and how long it took
+	 */
+	public BulkResult persistAll(final Iterable<?> entities, final int batchSize) {
+		return bulk(entities, batchSize, entityManager::persist);
+	}
+	
+	/**
+	 * Same as {@link #persistAll(Iterable, int)} with {@link #DEFAULT_BATCH_SIZE}
+	 * 
+	 * @param entities The entities
+	 * @return How many entities were persisted and how long it took
+	 */
+	public BulkResult persistAll(final Iterable<?> entities) {
+		return persistAll(entities, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Merges lots of entities in constant memory (see {@link #persistAll(Iterable, int)}). The merged entities aren't returned: they'd
+	 * be detached anyway.
+	 * 
+	 * @param entities The entities
+	 * @param batchSize How many entities per batch
+	 * @return How many entities were merged and how long it took
+	 */
+	public BulkResult mergeAll(final Iterable<?> entities, final int batchSize) {
+		return bulk(entities, batchSize, entityManager::merge);
+	}
+	
+	/**
+	 * Same as {@link #mergeAll(Iterable, int)} with {@link #DEFAULT_BATCH_SIZE}
+	 * 
+	 * @param entities The entities
+	 * @return How many entities were merged and how long it took
+	 */
+	public BulkResult mergeAll(final Iterable<?> entities) {
+		return mergeAll(entities, DEFAULT_BATCH_SIZE);
+	}
+	
+	private BulkResult bulk(final Iterable<?> entities, final int batchSize, final Consumer<Object> write) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		
+		final long start = System.nanoTime();
+		final FlushModeType flushMode = entityManager.getFlushMode();
+		final Integer previousBatchSize = jdbcBatchSize(batchSize);
+		long count = 0;
+		long batches = 0;
+		
+		try {
+			entityManager.setFlushMode(FlushModeType.COMMIT);
+			
+			for (final Object entity : entities) {
+				write.accept(entity);
+				
+				if (++count % batchSize == 0) {
+					entityManager.flush();
+					entityManager.clear();
+					batches++;
+				}
+			}
+			
+			if (count % batchSize != 0) {
+				entityManager.flush();
+				entityManager.clear();
+				batches++;
+			}
+		} finally {
+			entityManager.setFlushMode(flushMode);
+			jdbcBatchSize(previousBatchSize);
+		}
+		
+		return new BulkResult(count, batches, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Sets the JDBC batch size of this persistence context. The JPA API has no such thing, so it's done through the providers' own
+	 * properties (Hibernate's {@code Session.setJdbcBatchSize}, EclipseLink's batch writing, which is left on); unknown providers just
+	 * ignore them.
+	 * 
+	 * @param batchSize The batch size ({@code null}: back to the provider's default)
+	 * @return The previous (Hibernate) batch size
+	 */
+	private Integer jdbcBatchSize(final Integer batchSize) {
+		if (batchSize != null) {
+			entityManager.setProperty("eclipselink.jdbc.batch-writing", "JDBC");
+			entityManager.setProperty("eclipselink.jdbc.batch-writing.size", batchSize);
+		}
+		
+		try {
+			final Object session = entityManager.unwrap(Class.forName("org.hibernate.Session"));
+			final Integer previous = (Integer) session.getClass().getMethod("getJdbcBatchSize").invoke(session);
+			final Method setter = session.getClass().getMethod("setJdbcBatchSize", Integer.class);
+			setter.invoke(session, batchSize);
+			return previous;
+		} catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+			// Not Hibernate (or an older one, configured by hibernate.jdbc.batch_size only)
+			return null;
+		}
+	}
 
 	public void remove(final Object entity) {
 		entityManager.remove(entity);
@@ -99,17 +232,89 @@ public class PersistenceService {
 	}
 
 	public Query createQuery(final String qlString) {
-		return new NiceQuery(entityManager.createQuery(qlString));
+		return createNiceQuery(qlString);
 	}
 	
 	public Query createNativeQuery(final String qlString) {
-		return new NiceQuery(entityManager.createNativeQuery(qlString));
+		return createNiceNativeQuery(qlString);
+	}
+	
+	/**
+	 * Same as {@link #createQuery(String)}, typed as the {@link NiceQuery} it is (e.g. to {@link NiceQuery#stream() stream} it)
+	 * 
+	 * @param qlString JPQL query
+	 * @return The query
+	 */
+	public NiceQuery createNiceQuery(final String qlString) {
+		return new NiceQuery(entityManager.createQuery(qlString), entityManager);
+	}
+	
+	/**
+	 * Same as {@link #createNativeQuery(String)}, typed as the {@link NiceQuery} it is (e.g. to {@link NiceQuery#stream() stream} it)
+	 * 
+	 * @param qlString SQL query
+	 * @return The query
+	 */
+	public NiceQuery createNiceNativeQuery(final String qlString) {
+		return new NiceQuery(entityManager.createNativeQuery(qlString), entityManager);
 	}
 
 	public <T> TypedQuery<T> createQuery(final String qlString, final Class<T> resultClass) {
 		return entityManager.createQuery(qlString, resultClass);
 	}
 	
+	/**
+	 * Streams a query's results instead of loading them all at once (see {@link NiceQuery#stream(int, boolean)})
+	 * 
+	 * @param query The query
+	 * @param fetchSize Rows per round trip
+	 * @param clear Clear the persistence context every {@code fetchSize} rows (for reports over lots of entities: heap use stays constant)
+	 * @return The results (close it if it isn't consumed to the end)
+	 */
+	public <T> Stream<T> stream(final TypedQuery<T> query, final int fetchSize, final boolean clear) {
+		return stream(query, fetchSize, clear, entityManager);
+	}
+	
+	/**
+	 * Streams through a database cursor if the JPA provider has one ({@link ScrollingIterator}), a page at a time otherwise
+	 * ({@link PagedIterator})
+	 */
+	private static <T> Stream<T> stream(final Query query, final int fetchSize, final boolean clear, final EntityManager entityManager) {
+		if (fetchSize < 1) {
+			throw new IllegalArgumentException("fetchSize must be positive: " + fetchSize);
+		}
+		
+		final Runnable clearer = clear && entityManager != null ? () -> {
+			// Clearing would throw away changes not flushed yet
+			if (entityManager.isJoinedToTransaction()) {
+				entityManager.flush();
+			}
+			
+			entityManager.clear();
+		} : null;
+		final ScrollingIterator<T> cursor = ScrollingIterator.open(query, fetchSize, clear, clearer);
+		
+		if (cursor != null) {
+			return PagedIterator.stream(cursor, cursor::close);
+		}
+		
+		final PagedIterator<T> pages = new PagedIterator<>(query, fetchSize, clear, clearer);
+		return PagedIterator.stream(pages, pages::close);
+	}
+	
+	/**
+	 * Keyset pagination over an entity (see {@link KeysetQuery}): pages cost the same however deep they are, unlike
+	 * {@link Query#setFirstResult(int)}.
+	 * 
+	 * @param entityClass The entity
+	 * @param keyAttribute The (indexed) attribute pages are ordered by, e.g. {@code "id"} (the id breaks ties if it is another one)
+	 * @param key Reads the key off an entity, e.g. {@code User::getId}
+	 * @return The query, to be refined and paged through
+	 */
+	public <T, K> KeysetQuery<T, K> keyset(final Class<T> entityClass, final String keyAttribute, final Function<? super T, ? extends K> key) {
+		return new KeysetQuery<>(entityManager, entityClass, keyAttribute, key);
+	}
+	
 	/**
 	 * Wraps a {@link Query} object and implements some nice features (or just avoid annoying crap)
 	 * 
@@ -118,18 +323,59 @@ public class PersistenceService {
 	 */
 	public static class NiceQuery implements Query {
 		private final Query query;
+		private final EntityManager entityManager;
 		
 		public NiceQuery(final Query query) {
+			this(query, null);
+		}
+		
+		/**
+		 * @param query The query
+		 * @param entityManager Its entity manager (cleared between pages by {@link #stream(int, boolean)})
+		 */
+		public NiceQuery(final Query query, final EntityManager entityManager) {
 			this.query = query;
+			this.entityManager = entityManager;
 		}
 		
+		@SuppressWarnings("rawtypes")
 		public List getResultList() {
 			return query.getResultList();
 		}
 		
+		/** @return {@link #stream(int, boolean) stream(DEFAULT_FETCH_SIZE, false)} */
+		public Stream<Object> stream() {
+			return stream(DEFAULT_FETCH_SIZE, false);
+		}
+		
+		/**
+		 * <p>Streams the results instead of loading them all at once. Its first/max results are honored and the query is left as it was.</p>
+		 * 
+		 * <p>With Hibernate, rows are read through a forward-only database cursor ({@code fetchSize} rows per round trip), which holds a
+		 * connection until the stream is consumed to the end or closed. Other providers get the results a page ({@code fetchSize} rows) at
+		 * a time: the query must have a stable {@code ORDER BY} then (rows may be skipped or repeated between pages otherwise) and deep
+		 * pages get slower, so prefer {@link PersistenceService#keyset(Class, String, Function) keyset pagination} for big tables.</p>
+		 * 
+		 * @param fetchSize Rows per round trip (or page)
+		 * @param clear Clear the persistence context every {@code fetchSize} rows and hint the provider that entities are read-only (for
+		 *            reports over lots of entities: heap use stays constant, but entities read earlier get detached). Pending changes are
+		 *            flushed first if there's a transaction, and lost otherwise.
+		 * @return The results (close it if it isn't consumed to the end)
+		 */
+		public Stream<Object> stream(final int fetchSize, final boolean clear) {
+			return PersistenceService.stream(query, fetchSize, clear, entityManager);
+		}
+		
+		/** @return The first result or {@code null} if there's none (only one row is fetched) */
 		public Object getSingleResult() {
-			final List results = query.getResultList();
-			return results != null && !results.isEmpty() ? results.get(0) : null;
+			final int maxResults = query.getMaxResults();
+			
+			try {
+				final List<?> results = query.setMaxResults(1).getResultList();
+				return results != null && !results.isEmpty() ? results.get(0) : null;
+			} finally {
+				query.setMaxResults(maxResults);
+			}
 		}
 
 		public int executeUpdate() {
@@ -0,0 +1,152 @@
+package g0dkar.utils.jpa;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+/**
+ * Iterates over a query's results through a forward-only database cursor (Hibernate's {@code ScrollableResults}): rows are read as they're
+ * iterated, {@code fetchSize} per round trip, and every row costs the same however deep into the results it is. Honors the query's own
+ * first/max results. The JPA API has no cursors, so Hibernate's are used reflectively: {@link #open(Query, int, boolean, Runnable)} returns
+ * {@code null} for other providers (see {@link PagedIterator}).
+ * 
+ * <p>The cursor holds a JDBC result set (and connection) until it's exhausted or {@link #close() closed}.</p>
+ * 
+ * @author Rafael Lins
+ * 
+ * @param <T> Result type
+ */
+final class ScrollingIterator<T> implements Iterator<T> {
+	private final Object results;
+	private final Method next;
+	private final Method get;
+	private final Method close;
+	private final int fetchSize;
+	private final Runnable beforeNextPage;
+	private long read;
+	private Boolean hasRow;
+	private boolean closed;
+	
+	private ScrollingIterator(final Object results, final Class<?> resultsClass, final int fetchSize, final Runnable beforeNextPage) throws NoSuchMethodException {
+		this.results = results;
+		this.next = resultsClass.getMethod("next");
+		this.get = resultsClass.getMethod("get");
+		this.close = resultsClass.getMethod("close");
+		this.fetchSize = fetchSize;
+		this.beforeNextPage = beforeNextPage;
+	}
+	
+	/**
+	 * Opens a cursor over a query's results. The query's fetch size and read-only flag are only changed while the cursor is opened (it
+	 * keeps its own copy of them): the query is left as it was.
+	 * 
+	 * @param query The query
+	 * @param fetchSize Rows per round trip
+	 * @param readOnly Are the results only going to be read (e.g. a report)?
+	 * @param beforeNextPage Runs before every {@code fetchSize} rows but the first ones (e.g. clearing the persistence context), may be
+	 *            {@code null}
+	 * @return The iterator or {@code null} if the query isn't a Hibernate (5.2+) one
+	 */
+	static <T> ScrollingIterator<T> open(final Query query, final int fetchSize, final boolean readOnly, final Runnable beforeNextPage) {
+		final Class<?> queryClass;
+		final Class<?> scrollMode;
+		final Class<?> resultsClass;
+		final Object hibernateQuery;
+		
+		try {
+			queryClass = Class.forName("org.hibernate.query.Query");
+			scrollMode = Class.forName("org.hibernate.ScrollMode");
+			resultsClass = Class.forName("org.hibernate.ScrollableResults");
+			hibernateQuery = query.unwrap(queryClass);
+		} catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+			// Not Hibernate (or one older than 5.2)
+			return null;
+		}
+		
+		try {
+			final Integer fetchSizeBefore = (Integer) queryClass.getMethod("getFetchSize").invoke(hibernateQuery);
+			final Boolean readOnlyBefore = (Boolean) queryClass.getMethod("isReadOnly").invoke(hibernateQuery);
+			final Object results;
+			
+			try {
+				queryClass.getMethod("setFetchSize", int.class).invoke(hibernateQuery, fetchSize);
+				queryClass.getMethod("setReadOnly", boolean.class).invoke(hibernateQuery, readOnly || readOnlyBefore);
+				results = queryClass.getMethod("scroll", scrollMode).invoke(hibernateQuery, forwardOnly(scrollMode));
+			} finally {
+				// 0 is "the JDBC driver's default", which is what no fetch size means
+				queryClass.getMethod("setFetchSize", int.class).invoke(hibernateQuery, fetchSizeBefore != null ? fetchSizeBefore : 0);
+				queryClass.getMethod("setReadOnly", boolean.class).invoke(hibernateQuery, readOnlyBefore);
+			}
+			
+			return new ScrollingIterator<>(results, resultsClass, fetchSize, beforeNextPage);
+		} catch (final InvocationTargetException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new PersistenceException(e.getCause());
+		} catch (final ReflectiveOperationException e) {
+			// A Hibernate whose API isn't the one this was written for
+			return null;
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object forwardOnly(final Class<?> scrollMode) {
+		return Enum.valueOf((Class) scrollMode, "FORWARD_ONLY");
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if (hasRow == null) {
+			if (closed) {
+				return false;
+			}
+			
+			if (read > 0 && read % fetchSize == 0 && beforeNextPage != null) {
+				beforeNextPage.run();
+			}
+			
+			hasRow = (Boolean) invoke(next);
+			
+			if (!hasRow) {
+				close();
+			}
+		}
+		
+		return hasRow;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		
+		final Object row = invoke(get);
+		hasRow = null;
+		read++;
+		// Hibernate 5 returns every row as an array, even when a single thing was selected
+		return (T) (row instanceof Object[] && ((Object[]) row).length == 1 ? ((Object[]) row)[0] : row);
+	}
+	
+	/** Closes the cursor (done once it's exhausted too) */
+	public void close() {
+		if (!closed) {
+			closed = true;
+			hasRow = Boolean.FALSE;
+			invoke(close);
+		}
+	}
+	
+	private Object invoke(final Method method) {
+		try {
+			return method.invoke(results);
+		} catch (final InvocationTargetException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new PersistenceException(e.getCause());
+		} catch (final IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package g0dkar.utils.json;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * <p>Marks a class (usually a hot DTO) to have a reflection-free {@link TypeAdapter} generated for it at compile time by the
+ * {@link GenerateTypeAdapterProcessor}. {@link Json#builder()} registers the {@link GeneratedTypeAdapterFactory}, so nothing else needs to be
+ * done: {@link Json#toJson(Object)} and friends will pick the generated adapter up.</p>
+ * 
+ * <p>The generated adapter follows the same rules as {@link Json#GSON}: {@code static} and {@code transient} fields are ignored and
+ * {@link SerializedName} is honored. The class must be a non-generic top level or {@code static} nested class with a no-args constructor
+ * accessible from its package. Fields must be non-private and non-final, or have JavaBean getters/setters.</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface GenerateTypeAdapter {
+	
+}
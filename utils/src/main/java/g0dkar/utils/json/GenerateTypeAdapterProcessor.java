@@ -0,0 +1,485 @@
+package g0dkar.utils.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * <p>Annotation processor that generates a straight-line {@link TypeAdapter} for every class annotated with {@link GenerateTypeAdapter}.
+ * Primitives, their wrappers and {@link String} are read/written inline (no reflection, no boxing for primitives). Every other field type is
+ * delegated to the adapter the {@link com.google.gson.Gson Gson} instance has for it (so the {@link Json#builder()} date converters still
+ * apply), using the value's runtime type when it's a subclass, just like Gson does. The output is the same as Gson's reflection-based
+ * adapters'.</p>
+ * 
+ * <p>It is registered through {@code META-INF/services}, so having this library on the compile classpath is enough.</p>
+ * 
+ * @author Rafael Lins
+ * @see GeneratedTypeAdapterFactory
+ *
+ */
+@SupportedAnnotationTypes("g0dkar.utils.json.GenerateTypeAdapter")
+public class GenerateTypeAdapterProcessor extends AbstractProcessor {
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+	
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+		for (final Element element : roundEnv.getElementsAnnotatedWith(GenerateTypeAdapter.class)) {
+			final TypeElement type = (TypeElement) element;
+			
+			if (isSupported(type)) {
+				final List<Property> properties = properties(type);
+				
+				if (properties != null) {
+					generate(type, properties);
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	private void error(final Element element, final String message) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, "@GenerateTypeAdapter: " + message, element);
+	}
+	
+	/** Checks the class itself: concrete, non-generic, instantiable from its package */
+	private boolean isSupported(final TypeElement type) {
+		if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+			error(type, "only concrete classes are supported");
+			return false;
+		}
+		else if (!type.getTypeParameters().isEmpty()) {
+			error(type, "generic classes are not supported");
+			return false;
+		}
+		
+		for (Element current = type; current instanceof TypeElement; current = current.getEnclosingElement()) {
+			final TypeElement currentType = (TypeElement) current;
+			
+			if (currentType.getModifiers().contains(Modifier.PRIVATE)) {
+				error(type, currentType.getSimpleName() + " must not be private");
+				return false;
+			}
+			else if (currentType.getNestingKind() == NestingKind.MEMBER && !currentType.getModifiers().contains(Modifier.STATIC)) {
+				error(type, currentType.getSimpleName() + " must be a static nested class");
+				return false;
+			}
+			else if (currentType.getNestingKind() == NestingKind.LOCAL || currentType.getNestingKind() == NestingKind.ANONYMOUS) {
+				error(type, "local and anonymous classes are not supported");
+				return false;
+			}
+		}
+		
+		for (final ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				return true;
+			}
+		}
+		
+		error(type, "a non-private no-args constructor is required");
+		return false;
+	}
+	
+	/** Same fields {@link Json#GSON} would see: declared ones first, then the superclasses', skipping {@code static} and {@code transient} */
+	private List<Property> properties(final TypeElement type) {
+		final Map<String, Property> properties = new LinkedHashMap<>();
+		final List<ExecutableElement> methods = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type));
+		boolean valid = true;
+		
+		for (TypeElement current = type; current != null && !current.getQualifiedName().contentEquals("java.lang.Object"); current = superclass(current)) {
+			for (final VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+				if (field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+				
+				final Property property = property(type, current, field, methods);
+				
+				if (property == null) {
+					valid = false;
+				}
+				else if (properties.containsKey(property.name)) {
+					error(field, type.getQualifiedName() + " declares multiple JSON fields named " + property.name);
+					valid = false;
+				}
+				else {
+					properties.put(property.name, property);
+				}
+			}
+		}
+		
+		return valid ? new ArrayList<>(properties.values()) : null;
+	}
+	
+	private Property property(final TypeElement type, final TypeElement declaring, final VariableElement field, final List<ExecutableElement> methods) {
+		final TypeMirror fieldType = field.asType();
+		
+		if (hasTypeVariable(fieldType)) {
+			error(field, "fields with type variables are not supported");
+			return null;
+		}
+		
+		final String fieldName = field.getSimpleName().toString();
+		final SerializedName serializedName = field.getAnnotation(SerializedName.class);
+		final Property property = new Property(serializedName != null ? serializedName.value() : fieldName, fieldType);
+		
+		if (serializedName != null) {
+			for (final String alternate : serializedName.alternate()) {
+				property.alternates.add(alternate);
+			}
+		}
+		
+		final boolean fieldAccessible = isAccessible(type, declaring, field);
+		
+		if (fieldAccessible) {
+			property.getter = "value." + fieldName;
+		}
+		else {
+			final String capitalized = Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+			
+			for (final ExecutableElement method : methods) {
+				final String methodName = method.getSimpleName().toString();
+				
+				if (method.getModifiers().contains(Modifier.STATIC) || !isAccessible(type, (TypeElement) method.getEnclosingElement(), method)) {
+					continue;
+				}
+				else if (method.getParameters().isEmpty() && processingEnv.getTypeUtils().isSameType(method.getReturnType(), fieldType)
+						&& (methodName.equals("get" + capitalized) || (fieldType.getKind() == TypeKind.BOOLEAN && methodName.equals("is" + capitalized)))) {
+					property.getter = "value." + methodName + "()";
+				}
+			}
+		}
+		
+		if (fieldAccessible && !field.getModifiers().contains(Modifier.FINAL)) {
+			property.setter = "value." + fieldName + " = %s";
+		}
+		else {
+			final String setterName = "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+			
+			for (final ExecutableElement method : methods) {
+				if (!method.getModifiers().contains(Modifier.STATIC) && isAccessible(type, (TypeElement) method.getEnclosingElement(), method)
+						&& method.getSimpleName().contentEquals(setterName) && method.getParameters().size() == 1
+						&& processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), fieldType)) {
+					property.setter = "value." + setterName + "(%s)";
+				}
+			}
+		}
+		
+		if (property.getter == null || property.setter == null) {
+			error(field, "field must be non-private and non-final or have an accessible getter and setter");
+			return null;
+		}
+		
+		return property;
+	}
+	
+	private TypeElement superclass(final TypeElement type) {
+		final TypeMirror superclass = type.getSuperclass();
+		return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+	}
+	
+	/** Can the generated adapter (which lives in {@code type}'s package) access this member? */
+	private boolean isAccessible(final TypeElement type, final TypeElement declaring, final Element member) {
+		final Set<Modifier> modifiers = member.getModifiers();
+		
+		if (modifiers.contains(Modifier.PUBLIC)) {
+			return true;
+		}
+		
+		return !modifiers.contains(Modifier.PRIVATE)
+				&& processingEnv.getElementUtils().getPackageOf(type).equals(processingEnv.getElementUtils().getPackageOf(declaring));
+	}
+	
+	private boolean hasTypeVariable(final TypeMirror type) {
+		switch (type.getKind()) {
+			case TYPEVAR:
+				return true;
+			case ARRAY:
+				return hasTypeVariable(((ArrayType) type).getComponentType());
+			case WILDCARD:
+				final WildcardType wildcard = (WildcardType) type;
+				return (wildcard.getExtendsBound() != null && hasTypeVariable(wildcard.getExtendsBound()))
+						|| (wildcard.getSuperBound() != null && hasTypeVariable(wildcard.getSuperBound()));
+			case DECLARED:
+				for (final TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+					if (hasTypeVariable(argument)) {
+						return true;
+					}
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+	
+	// ------------------------------------------------------------------------------------------------------------------------------------
+	// Code generation
+	// ------------------------------------------------------------------------------------------------------------------------------------
+	
+	private void generate(final TypeElement type, final List<Property> properties) {
+		final String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		final String adapterName = GeneratedTypeAdapterFactory.adapterName(processingEnv.getElementUtils().getBinaryName(type).toString());
+		final String simpleName = adapterName.substring(adapterName.lastIndexOf('.') + 1);
+		final String typeName = type.getQualifiedName().toString();
+		
+		// One delegate TypeAdapter per distinct non-inline field type
+		final Map<String, String> delegates = new LinkedHashMap<>();
+		boolean runtimeTypes = false;
+		for (final Property property : properties) {
+			if (inlineKind(property.type) == null && !delegates.containsKey(property.type.toString())) {
+				delegates.put(property.type.toString(), "adapter" + delegates.size());
+			}
+			
+			runtimeTypes |= runtimeType(property.type) != null;
+		}
+		
+		final StringBuilder src = new StringBuilder(4096);
+		
+		if (!packageName.isEmpty()) {
+			src.append("package ").append(packageName).append(";\n\n");
+		}
+		
+		src.append("import java.io.IOException;\n\n")
+			.append("import com.google.gson.Gson;\n")
+			.append("import com.google.gson.TypeAdapter;\n")
+			.append("import com.google.gson.reflect.TypeToken;\n")
+			.append("import com.google.gson.stream.JsonReader;\n")
+			.append("import com.google.gson.stream.JsonToken;\n")
+			.append("import com.google.gson.stream.JsonWriter;\n\n")
+			.append("import ").append(GeneratedTypeAdapterFactory.class.getName()).append(";\n\n")
+			.append("/** Generated by ").append(getClass().getName()).append(" for {@link ").append(typeName).append("}. Do not edit. */\n")
+			.append("public final class ").append(simpleName).append(" extends TypeAdapter<").append(typeName).append("> {\n");
+		
+		if (runtimeTypes) {
+			src.append("\tprivate final Gson gson;\n");
+		}
+		for (final Map.Entry<String, String> delegate : delegates.entrySet()) {
+			src.append("\tprivate final TypeAdapter<").append(delegate.getKey()).append("> ").append(delegate.getValue()).append(";\n");
+		}
+		
+		src.append("\n\tpublic ").append(simpleName).append("(final Gson gson) {\n");
+		if (runtimeTypes) {
+			src.append("\t\tthis.gson = gson;\n");
+		}
+		final Set<String> initialized = new LinkedHashSet<>();
+		for (final Property property : properties) {
+			final String delegate = delegates.get(property.type.toString());
+			
+			if (delegate != null && initialized.add(delegate)) {
+				src.append("\t\t").append(delegate).append(" = gson.getAdapter(").append(typeToken(property.type)).append(");\n");
+			}
+		}
+		src.append("\t}\n\n");
+		
+		// write()
+		src.append("\t@Override\n")
+			.append("\tpublic void write(final JsonWriter out, final ").append(typeName).append(" value) throws IOException {\n")
+			.append("\t\tif (value == null) {\n\t\t\tout.nullValue();\n\t\t\treturn;\n\t\t}\n\n")
+			.append("\t\tout.beginObject();\n");
+		for (final Property property : properties) {
+			src.append(writeStatement(property, delegates.get(property.type.toString())));
+		}
+		src.append("\t\tout.endObject();\n\t}\n\n");
+		
+		// read()
+		src.append("\t@Override\n")
+			.append("\tpublic ").append(typeName).append(" read(final JsonReader in) throws IOException {\n")
+			.append("\t\tif (in.peek() == JsonToken.NULL) {\n\t\t\tin.nextNull();\n\t\t\treturn null;\n\t\t}\n\n")
+			.append("\t\tfinal ").append(typeName).append(" value = new ").append(typeName).append("();\n")
+			.append("\t\tin.beginObject();\n")
+			.append("\t\twhile (in.hasNext()) {\n")
+			.append("\t\t\tswitch (in.nextName()) {\n");
+		for (final Property property : properties) {
+			src.append("\t\t\t\tcase ").append(literal(property.name)).append(":\n");
+			for (final String alternate : property.alternates) {
+				src.append("\t\t\t\tcase ").append(literal(alternate)).append(":\n");
+			}
+			src.append(readStatement(property, delegates.get(property.type.toString()))).append("\t\t\t\t\tbreak;\n");
+		}
+		src.append("\t\t\t\tdefault:\n\t\t\t\t\tin.skipValue();\n")
+			.append("\t\t\t}\n\t\t}\n")
+			.append("\t\tin.endObject();\n")
+			.append("\t\treturn value;\n\t}\n}\n");
+		
+		try (final Writer writer = processingEnv.getFiler().createSourceFile(adapterName, type).openWriter()) {
+			writer.write(src.toString());
+		} catch (final IOException e) {
+			error(type, "could not write " + adapterName + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return The primitive/wrapper/String kind handled inline ({@code "int"}, {@code "Integer"}, {@code "String"}...) or {@code null} if
+	 *         the field should be delegated to a Gson {@link TypeAdapter}
+	 */
+	private String inlineKind(final TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			return type.toString();
+		}
+		else if (type.getKind() == TypeKind.DECLARED) {
+			final String name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+			
+			switch (name) {
+				case "java.lang.String":
+				case "java.lang.Boolean":
+				case "java.lang.Character":
+				case "java.lang.Byte":
+				case "java.lang.Short":
+				case "java.lang.Integer":
+				case "java.lang.Long":
+				case "java.lang.Float":
+				case "java.lang.Double":
+					return name.substring("java.lang.".length());
+				default:
+					return null;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * @return The erasure of a delegated field type whose values may be of a subclass (non-final, non-generic classes and interfaces) or
+	 *         {@code null} if the declared type's adapter is always the right one
+	 */
+	private String runtimeType(final TypeMirror type) {
+		if (inlineKind(type) != null || type.getKind() != TypeKind.DECLARED || !((DeclaredType) type).getTypeArguments().isEmpty()) {
+			return null;
+		}
+		
+		final Element element = ((DeclaredType) type).asElement();
+		final boolean canHaveSubclasses = (element.getKind() == ElementKind.CLASS || element.getKind() == ElementKind.INTERFACE)
+				&& !element.getModifiers().contains(Modifier.FINAL);
+		return canHaveSubclasses ? processingEnv.getTypeUtils().erasure(type).toString() : null;
+	}
+	
+	private String typeToken(final TypeMirror type) {
+		final boolean parameterized = type.getKind() == TypeKind.DECLARED ? !((DeclaredType) type).getTypeArguments().isEmpty() : type.getKind() == TypeKind.ARRAY && type.toString().contains("<");
+		return parameterized ? "new TypeToken<" + type + ">() {}" : processingEnv.getTypeUtils().erasure(type) + ".class";
+	}
+	
+	private String writeStatement(final Property property, final String delegate) {
+		final String kind = inlineKind(property.type);
+		final String name = "\t\tout.name(" + literal(property.name) + ")";
+		
+		if (kind == null) {
+			final String runtimeType = runtimeType(property.type);
+			return runtimeType != null
+					? name + ";\n\t\tGeneratedTypeAdapterFactory.write(gson, " + delegate + ", " + runtimeType + ".class, out, " + property.getter + ");\n"
+					: name + ";\n\t\t" + delegate + ".write(out, " + property.getter + ");\n";
+		}
+		
+		switch (kind) {
+			case "float":
+				// value(double) would widen 0.1f into 0.10000000149011612: Gson writes the Float itself
+				return name + ".value((Number) Float.valueOf(" + property.getter + "));\n";
+			case "char":
+				return name + ".value(String.valueOf(" + property.getter + "));\n";
+			case "Boolean":
+			case "Character":
+				return "\t\t{\n\t\t\tfinal " + kind + " v = " + property.getter + ";\n"
+					+ "\t" + name + ";\n"
+					+ "\t\t\tif (v == null) {\n\t\t\t\tout.nullValue();\n\t\t\t}\n"
+					+ "\t\t\telse {\n\t\t\t\tout.value(" + ("Boolean".equals(kind) ? "v.booleanValue()" : "String.valueOf(v.charValue())") + ");\n\t\t\t}\n"
+					+ "\t\t}\n";
+			default:
+				// Other primitives widen to value(long)/value(double)/value(boolean), wrappers go through value(Number) and Strings through value(String)
+				return name + ".value(" + property.getter + ");\n";
+		}
+	}
+	
+	private String readStatement(final Property property, final String delegate) {
+		final String kind = inlineKind(property.type);
+		
+		if (kind == null) {
+			return "\t\t\t\t\t" + String.format(property.setter, delegate + ".read(in)") + ";\n";
+		}
+		
+		final String read;
+		switch (kind) {
+			case "boolean": case "Boolean": read = "GeneratedTypeAdapterFactory.nextBoolean(in)"; break;
+			case "char": case "Character": read = "GeneratedTypeAdapterFactory.nextChar(in)"; break;
+			case "byte": case "Byte": read = "(byte) GeneratedTypeAdapterFactory.nextInt(in)"; break;
+			case "short": case "Short": read = "(short) GeneratedTypeAdapterFactory.nextInt(in)"; break;
+			case "int": case "Integer": read = "GeneratedTypeAdapterFactory.nextInt(in)"; break;
+			case "long": case "Long": read = "GeneratedTypeAdapterFactory.nextLong(in)"; break;
+			case "float": case "Float": read = "(float) GeneratedTypeAdapterFactory.nextDouble(in)"; break;
+			case "double": case "Double": read = "GeneratedTypeAdapterFactory.nextDouble(in)"; break;
+			default: read = "in.peek() == JsonToken.BOOLEAN ? Boolean.toString(in.nextBoolean()) : in.nextString()"; break;
+		}
+		
+		// JSON nulls leave primitives untouched (just like Gson does) and set everything else to null
+		final boolean primitive = property.type.getKind().isPrimitive();
+		return "\t\t\t\t\tif (in.peek() == JsonToken.NULL) {\n"
+			+ "\t\t\t\t\t\tin.nextNull();\n"
+			+ (primitive ? "" : "\t\t\t\t\t\t" + String.format(property.setter, "null") + ";\n")
+			+ "\t\t\t\t\t}\n"
+			+ "\t\t\t\t\telse {\n"
+			+ "\t\t\t\t\t\t" + String.format(property.setter, read) + ";\n"
+			+ "\t\t\t\t\t}\n";
+	}
+	
+	private static String literal(final String value) {
+		final StringBuilder literal = new StringBuilder(value.length() + 2).append('"');
+		
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			
+			if (c == '"' || c == '\\') {
+				literal.append('\\').append(c);
+			}
+			else if (c < 0x20 || c > 0x7e) {
+				literal.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				literal.append(c);
+			}
+		}
+		
+		return literal.append('"').toString();
+	}
+	
+	/** A JSON property of the annotated class and how to get/set it */
+	private static class Property {
+		final String name;
+		final TypeMirror type;
+		final Set<String> alternates = new LinkedHashSet<>();
+		String getter;
+		/** {@link String#format(String, Object...) Format} with the value expression as the single argument */
+		String setter;
+		
+		Property(final String name, final TypeMirror type) {
+			this.name = name;
+			this.type = type;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package g0dkar.utils.json;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.Since;
+import com.google.gson.internal.bind.ReflectiveTypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * {@link TypeAdapterFactory} that hands out the {@link TypeAdapter TypeAdapters} generated by the {@link GenerateTypeAdapterProcessor} for
+ * classes annotated with {@link GenerateTypeAdapter}. If the processor didn't run for a class (no generated adapter is found) Gson's
+ * reflection-based adapter is used as usual.
+ * 
+ * <p>Generated adapters know the field names and types at compile time, so they're only used by {@link Gson} instances that would name and
+ * write fields just like {@link Json#GSON}: builders with a {@link com.google.gson.FieldNamingPolicy FieldNamingPolicy}, a version,
+ * {@code excludeFieldsWithoutExposeAnnotation()}, other excluded modifiers or {@link com.google.gson.LongSerializationPolicy#STRING} get
+ * Gson's reflection-based adapter instead. Custom {@link com.google.gson.ExclusionStrategy ExclusionStrategies} can't be detected: don't
+ * combine them with {@link GenerateTypeAdapter}.</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class GeneratedTypeAdapterFactory implements TypeAdapterFactory {
+	/** Suffix appended to the generated adapters' names: {@code com.example.Outer.Inner} becomes {@code com.example.Outer_Inner_TypeAdapter} */
+	public static final String SUFFIX = "_TypeAdapter";
+	
+	public static final GeneratedTypeAdapterFactory INSTANCE = new GeneratedTypeAdapterFactory();
+	
+	private static final Map<Class<?>, Optional<Constructor<?>>> CONSTRUCTORS = new ConcurrentHashMap<>();
+	/** Whether each {@link Gson} writes fields like {@link Json#GSON} does (see {@link #isCompatible(Gson)}) */
+	private static final Map<Gson, Boolean> COMPATIBLE = Collections.synchronizedMap(new WeakHashMap<>());
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> type) {
+		final Class<? super T> rawType = type.getRawType();
+		
+		if (!rawType.isAnnotationPresent(GenerateTypeAdapter.class) || !COMPATIBLE.computeIfAbsent(gson, GeneratedTypeAdapterFactory::isCompatible)) {
+			return null;
+		}
+		
+		final Optional<Constructor<?>> constructor = CONSTRUCTORS.computeIfAbsent(rawType, GeneratedTypeAdapterFactory::lookup);
+		
+		if (constructor.isPresent()) {
+			try {
+				return (TypeAdapter<T>) constructor.get().newInstance(gson);
+			} catch (final ReflectiveOperationException e) {
+				throw new JsonIOException("Could not instantiate the generated TypeAdapter for " + rawType.getName(), e);
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * The name of the adapter generated for a class: same package, nested class names joined by {@code _}, plus {@link #SUFFIX}.
+	 * @param binaryName The class {@link Class#getName() binary name}
+	 * @return The generated adapter's binary name
+	 */
+	public static String adapterName(final String binaryName) {
+		final int lastDot = binaryName.lastIndexOf('.');
+		return binaryName.substring(0, lastDot + 1) + binaryName.substring(lastDot + 1).replace('$', '_') + SUFFIX;
+	}
+	
+	/** Writes a {@link Canary} and checks its fields came out with the same names and values {@link Json#GSON} would write */
+	private static boolean isCompatible(final Gson gson) {
+		final JsonObject expected = new JsonObject();
+		expected.addProperty("namingProbe", 1L);
+		expected.addProperty("versionProbe", 1L);
+		
+		final JsonElement actual = gson.toJsonTree(new Canary());
+		return expected.equals(actual);
+	}
+	
+	private static Optional<Constructor<?>> lookup(final Class<?> type) {
+		try {
+			final Class<?> adapter = Class.forName(adapterName(type.getName()), true, type.getClassLoader());
+			return Optional.of(adapter.getConstructor(Gson.class));
+		} catch (final ClassNotFoundException | NoSuchMethodException e) {
+			return Optional.empty();
+		}
+	}
+	
+	// ------------------------------------------------------------------------------------------------------------------------------------
+	// Used by the generated adapters: same behaviour as Gson's own adapters
+	// ------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Writes a field's value with the adapter of its runtime type if it's more specific than the declared one, just like Gson's
+	 * reflection-based adapters do (so a {@code Base} field holding a {@code Sub} gets {@code Sub}'s fields written)
+	 * 
+	 * @param gson The Gson
+	 * @param declared Adapter of the field's declared type
+	 * @param declaredType The field's declared type
+	 * @param out Where to write
+	 * @param value The value
+	 * @throws IOException From the {@link JsonWriter}
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static <T> void write(final Gson gson, final TypeAdapter<T> declared, final Class<?> declaredType, final JsonWriter out, final T value) throws IOException {
+		if (value == null || value.getClass() == declaredType) {
+			declared.write(out, value);
+			return;
+		}
+		
+		// Prefer the runtime type's adapter unless it's a reflective one and the declared type has a custom adapter
+		final TypeAdapter runtime = gson.getAdapter(value.getClass());
+		final boolean useRuntime = !(runtime instanceof ReflectiveTypeAdapterFactory.Adapter) || declared instanceof ReflectiveTypeAdapterFactory.Adapter;
+		(useRuntime ? runtime : declared).write(out, value);
+	}
+	
+	/**
+	 * @param in Where to read from
+	 * @return A boolean (or a String with one, as Gson accepts)
+	 * @throws IOException From the {@link JsonReader}
+	 */
+	public static boolean nextBoolean(final JsonReader in) throws IOException {
+		return in.peek() == JsonToken.STRING ? Boolean.parseBoolean(in.nextString()) : in.nextBoolean();
+	}
+	
+	/**
+	 * @param in Where to read from
+	 * @return A single character
+	 * @throws IOException From the {@link JsonReader}
+	 * @throws JsonSyntaxException If the value isn't exactly one character long
+	 */
+	public static char nextChar(final JsonReader in) throws IOException {
+		final String value = in.nextString();
+		
+		if (value.length() != 1) {
+			throw new JsonSyntaxException("Expecting character, got: " + value);
+		}
+		
+		return value.charAt(0);
+	}
+	
+	/**
+	 * @param in Where to read from
+	 * @return An int
+	 * @throws IOException From the {@link JsonReader}
+	 * @throws JsonSyntaxException If the value isn't an int
+	 */
+	public static int nextInt(final JsonReader in) throws IOException {
+		try {
+			return in.nextInt();
+		} catch (final NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+	
+	/**
+	 * @param in Where to read from
+	 * @return A long
+	 * @throws IOException From the {@link JsonReader}
+	 * @throws JsonSyntaxException If the value isn't a long
+	 */
+	public static long nextLong(final JsonReader in) throws IOException {
+		try {
+			return in.nextLong();
+		} catch (final NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+	
+	/**
+	 * @param in Where to read from
+	 * @return A double
+	 * @throws IOException From the {@link JsonReader}
+	 * @throws JsonSyntaxException If the value isn't a number
+	 */
+	public static double nextDouble(final JsonReader in) throws IOException {
+		try {
+			return in.nextDouble();
+		} catch (final NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+	
+	/**
+	 * Written by each {@link Gson} to find out whether it names and writes fields like {@link Json#GSON} does: {@code namingProbe} is
+	 * renamed by naming policies and left out when only {@code @Expose}d fields are written, {@code transientProbe} shows up if
+	 * {@code transient} isn't excluded anymore, {@code versionProbe} disappears if a version is set and the {@code long}s become Strings
+	 * with {@link com.google.gson.LongSerializationPolicy#STRING}.
+	 * 
+	 * @author Rafael Lins
+	 *
+	 */
+	static class Canary {
+		long namingProbe = 1;
+		transient long transientProbe = 1;
+		@Since(Double.MAX_VALUE)
+		long versionProbe = 1;
+	}
+}
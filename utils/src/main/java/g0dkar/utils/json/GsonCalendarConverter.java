@@ -2,31 +2,63 @@ package g0dkar.utils.json;
 
 import java.io.IOException;
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.temporal.TemporalQueries;
 import java.util.Calendar;
-import java.util.TimeZone;
 
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 /**
- * A {@link TypeAdapter} for GSON so it can nicely work with {@link Calendar} types (and ISO, which is MUCH easier to deal when using JS)
+ * A {@link TypeAdapter} for GSON so it can nicely work with {@link Calendar} types (and ISO, which is MUCH easier to deal when using JS).
+ * Calendars are written with their offset and time zone ({@code 2011-12-03T10:15:30.123-03:00[America/Sao_Paulo]}) or, optionally, as
+ * epoch millis numbers (reading always accepts both).
  * 
  * @author Rafael Lins
  * @see Instant
+ * @see IsoTime
  */
 public class GsonCalendarConverter extends TypeAdapter<Calendar> {
+	private final boolean epochMillis;
+	
+	public GsonCalendarConverter() {
+		this(false);
+	}
+	
+	/**
+	 * @param epochMillis Write values as epoch millis numbers instead of ISO strings?
+	 */
+	public GsonCalendarConverter(final boolean epochMillis) {
+		this.epochMillis = epochMillis;
+	}
+	
+	@Override
 	public void write(final JsonWriter out, final Calendar value) throws IOException {
-		out.value(value != null ? Instant.ofEpochMilli(value.getTimeInMillis()).atZone(ZoneId.of(value.getTimeZone().getID())).toString() : null);
+		if (value == null) {
+			out.nullValue();
+		}
+		else if (epochMillis) {
+			out.value(value.getTimeInMillis());
+		}
+		else {
+			IsoTime.writeCalendar(out, value);
+		}
 	}
 	
+	@Override
 	public Calendar read(final JsonReader in) throws IOException {
-		final Instant instant = Instant.parse(in.nextString());
-		final Calendar calendar = Calendar.getInstance();
-		calendar.setTimeInMillis(instant.toEpochMilli());
-		calendar.setTimeZone(TimeZone.getTimeZone(instant.query(TemporalQueries.zoneId())));
-		return calendar;
+		final JsonToken token = in.peek();
+		
+		if (token == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		else if (token == JsonToken.NUMBER) {
+			final Calendar calendar = Calendar.getInstance();
+			calendar.setTimeInMillis(in.nextLong());
+			return calendar;
+		}
+		
+		return IsoTime.parseCalendar(in.nextString());
 	}
 }
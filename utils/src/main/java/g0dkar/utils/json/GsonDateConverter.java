@@ -2,27 +2,60 @@ package g0dkar.utils.json;
 
 import java.io.IOException;
 import java.time.Instant;
-import java.time.ZoneOffset;
 import java.util.Date;
 
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 /**
- * A {@link TypeAdapter} for GSON so it can nicely work with {@link Date} types (and ISO, which is MUCH easier to deal when using JS)
+ * A {@link TypeAdapter} for GSON so it can nicely work with {@link Date} types (and ISO, which is MUCH easier to deal when using JS).
+ * Dates are written in UTC ({@code 2011-12-03T10:15:30.123Z}) or, optionally, as epoch millis numbers (reading always accepts both).
  * 
  * @author Rafael Lins
  * @see Instant
+ * @see IsoTime
  */
 public class GsonDateConverter extends TypeAdapter<Date> {
+	private final boolean epochMillis;
+	
+	public GsonDateConverter() {
+		this(false);
+	}
+	
+	/**
+	 * @param epochMillis Write values as epoch millis numbers instead of ISO strings?
+	 */
+	public GsonDateConverter(final boolean epochMillis) {
+		this.epochMillis = epochMillis;
+	}
+	
 	@Override
 	public void write(final JsonWriter out, final Date value) throws IOException {
-		out.value(value != null ? Instant.ofEpochMilli(value.getTime()).atOffset(ZoneOffset.ofTotalSeconds(value.getTimezoneOffset() * 60)).toString() : null);
+		if (value == null) {
+			out.nullValue();
+		}
+		else if (epochMillis) {
+			out.value(value.getTime());
+		}
+		else {
+			IsoTime.writeEpochMillis(out, value.getTime());
+		}
 	}
 	
 	@Override
 	public Date read(final JsonReader in) throws IOException {
-		return new Date(Instant.parse(in.nextString()).toEpochMilli());
+		final JsonToken token = in.peek();
+		
+		if (token == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		else if (token == JsonToken.NUMBER) {
+			return new Date(in.nextLong());
+		}
+		
+		return new Date(IsoTime.parseEpochMillis(in.nextString()));
 	}
 }
@@ -5,23 +5,57 @@ import java.time.Instant;
 
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 /**
- * A {@link TypeAdapter} for GSON so it can nicely work with {@link Instant} types which natively uses ISO
+ * A {@link TypeAdapter} for GSON so it can nicely work with {@link Instant} types which natively uses ISO. Optionally, writes them as epoch
+ * millis numbers (reading always accepts both).
  * 
  * @author Rafael Lins
  * @see Instant
+ * @see IsoTime
  *
  */
 public class GsonInstantConverter extends TypeAdapter<Instant> {
+	private final boolean epochMillis;
+	
+	public GsonInstantConverter() {
+		this(false);
+	}
+	
+	/**
+	 * @param epochMillis Write values as epoch millis numbers instead of ISO strings?
+	 */
+	public GsonInstantConverter(final boolean epochMillis) {
+		this.epochMillis = epochMillis;
+	}
+	
 	@Override
 	public void write(final JsonWriter out, final Instant value) throws IOException {
-		out.value(value != null ? value.toString() : null);
+		if (value == null) {
+			out.nullValue();
+		}
+		else if (epochMillis) {
+			out.value(value.toEpochMilli());
+		}
+		else {
+			IsoTime.writeInstant(out, value.getEpochSecond(), value.getNano());
+		}
 	}
 	
 	@Override
 	public Instant read(final JsonReader in) throws IOException {
-		return Instant.parse(in.nextString());
+		final JsonToken token = in.peek();
+		
+		if (token == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		else if (token == JsonToken.NUMBER) {
+			return Instant.ofEpochMilli(in.nextLong());
+		}
+		
+		return IsoTime.parseInstant(in.nextString());
 	}
 }
@@ -6,23 +6,35 @@ import java.time.LocalDate;
 
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 /**
- * A {@link TypeAdapter} for GSON so it can nicely work with {@link Instant} types which natively uses ISO
+ * A {@link TypeAdapter} for GSON so it can nicely work with {@link LocalDate} types which natively uses ISO
  * 
  * @author Rafael Lins
  * @see Instant
+ * @see IsoTime
  *
  */
 public class GsonLocalDateConverter extends TypeAdapter<LocalDate> {
 	@Override
 	public void write(final JsonWriter out, final LocalDate value) throws IOException {
-		out.value(value != null ? value.toString() : null);
+		if (value == null) {
+			out.nullValue();
+		}
+		else {
+			IsoTime.writeLocalDate(out, value);
+		}
 	}
 	
 	@Override
 	public LocalDate read(final JsonReader in) throws IOException {
-		return LocalDate.parse(in.nextString());
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		
+		return IsoTime.parseLocalDate(in.nextString());
 	}
 }
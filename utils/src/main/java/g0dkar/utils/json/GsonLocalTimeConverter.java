@@ -6,23 +6,35 @@ import java.time.LocalTime;
 
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 /**
- * A {@link TypeAdapter} for GSON so it can nicely work with {@link Instant} types which natively uses ISO
+ * A {@link TypeAdapter} for GSON so it can nicely work with {@link LocalTime} types which natively uses ISO
  * 
  * @author Rafael Lins
  * @see Instant
+ * @see IsoTime
  *
  */
 public class GsonLocalTimeConverter extends TypeAdapter<LocalTime> {
 	@Override
 	public void write(final JsonWriter out, final LocalTime value) throws IOException {
-		out.value(value != null ? value.toString() : null);
+		if (value == null) {
+			out.nullValue();
+		}
+		else {
+			IsoTime.writeLocalTime(out, value);
+		}
 	}
 	
 	@Override
 	public LocalTime read(final JsonReader in) throws IOException {
-		return LocalTime.parse(in.nextString());
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		
+		return IsoTime.parseLocalTime(in.nextString());
 	}
 }
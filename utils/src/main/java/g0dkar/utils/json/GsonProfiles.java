@@ -0,0 +1,116 @@
+package g0dkar.utils.json;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * <p>Registry of named, shared {@link Gson} instances, all built on top of {@link Json#builder()}. Every {@link Gson} has its own cache of
+ * {@link com.google.gson.TypeAdapter TypeAdapters}, so creating a new one (e.g. {@code Json.builder().setPrettyPrinting().create()}) for each
+ * use means building all its (reflective) adapters again every time. Register the variant once (at startup) and {@link #get(String) get}
+ * it wherever it's needed instead.</p>
+ * 
+ * <p>A few profiles are always available: {@link #DEFAULT} (which is {@link Json#GSON}), {@link #PRETTY}, {@link #SERIALIZE_NULLS} and
+ * {@link #EPOCH_MILLIS}.</p>
+ * 
+ * <pre>
+ * GsonProfiles.register("api", builder -&gt; builder.serializeNulls().setFieldNamingPolicy(...), UserDto.class, OrderDto.class);
+ * ...
+ * GsonProfiles.get("api").toJson(order);
+ * </pre>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class GsonProfiles {
+	/** {@link Json#GSON} */
+	public static final String DEFAULT = "default";
+	/** {@link Json#builder()} + {@link GsonBuilder#setPrettyPrinting()} */
+	public static final String PRETTY = "pretty";
+	/** {@link Json#builder()} + {@link GsonBuilder#serializeNulls()} */
+	public static final String SERIALIZE_NULLS = "serializeNulls";
+	/** {@link Json#builder(boolean) Json.builder(true)}: dates as epoch millis */
+	public static final String EPOCH_MILLIS = "epochMillis";
+	
+	private static final Map<String, Gson> PROFILES = new ConcurrentHashMap<>();
+	
+	static {
+		PROFILES.put(DEFAULT, Json.GSON);
+		PROFILES.put(PRETTY, Json.builder().setPrettyPrinting().create());
+		PROFILES.put(SERIALIZE_NULLS, Json.builder().serializeNulls().create());
+		PROFILES.put(EPOCH_MILLIS, Json.builder(true).create());
+	}
+	
+	private GsonProfiles() {}
+	
+	/**
+	 * Registers (builds) a profile, if there isn't one with that name already, and warms it up.
+	 * 
+	 * @param name Profile name
+	 * @param customizer Customizes a {@link Json#builder()}
+	 * @param warmUp Types whose adapters are built right away (see {@link #warmUp(Gson, Type...)})
+	 * @return The profile's {@link Gson}: the one just built or the one already registered under that name
+	 */
+	public static Gson register(final String name, final Consumer<GsonBuilder> customizer, final Type... warmUp) {
+		final Gson gson = PROFILES.computeIfAbsent(name, k -> {
+			final GsonBuilder builder = Json.builder();
+			customizer.accept(builder);
+			return builder.create();
+		});
+		
+		return warmUp(gson, warmUp);
+	}
+	
+	/**
+	 * @param name Profile name
+	 * @return The profile's {@link Gson}
+	 * @throws IllegalArgumentException There's no such profile
+	 */
+	public static Gson get(final String name) {
+		final Gson gson = PROFILES.get(name);
+		
+		if (gson == null) {
+			throw new IllegalArgumentException("No Gson profile named " + name + " (available: " + PROFILES.keySet() + ")");
+		}
+		
+		return gson;
+	}
+	
+	/** @return Every profile's name */
+	public static Set<String> names() {
+		return PROFILES.keySet();
+	}
+	
+	/**
+	 * Warms a profile up: builds (and caches) the adapters for {@code types}, so the first request doesn't have to.
+	 * 
+	 * @param name Profile name
+	 * @param types Types to warm up
+	 * @return The profile's {@link Gson}
+	 * @throws IllegalArgumentException There's no such profile
+	 */
+	public static Gson warmUp(final String name, final Type... types) {
+		return warmUp(get(name), types);
+	}
+	
+	/**
+	 * Builds (and caches) the adapters for {@code types} on {@code gson}
+	 * 
+	 * @param gson The Gson
+	 * @param types Types to warm up
+	 * @return {@code gson}
+	 */
+	public static Gson warmUp(final Gson gson, final Type... types) {
+		for (final Type type : types) {
+			gson.getAdapter(TypeToken.get(type));
+		}
+		
+		return gson;
+	}
+}
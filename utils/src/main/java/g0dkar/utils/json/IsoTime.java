@@ -0,0 +1,606 @@
+package g0dkar.utils.json;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Fast ISO-8601 formatting and parsing for the {@code Gson*Converter} classes.
+ * 
+ * <p>Formatting writes the digits straight into a per-thread {@code char[]} and hands it to {@link JsonWriter#value(String)} (which
+ * escapes it and works with every {@link JsonWriter}, {@code toJsonTree}'s included), so no {@link DateTimeFormatter},
+ * {@link StringBuilder} or intermediate {@code java.time} objects are involved. Parsing walks the characters of the JSON string once.
+ * Anything outside the fast path (years outside {@code 0000-9999}, odd layouts, invalid values) falls back to the regular
+ * {@code java.time} parsers and formatters, which also produce the error messages.</p>
+ * 
+ * <p>The output is the same as the {@code toString()} of the respective {@code java.time} types.</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public final class IsoTime {
+	private static final int SECONDS_PER_DAY = 86400;
+	private static final int NO_OFFSET = Integer.MIN_VALUE;
+	/** {@link ZoneOffset#MAX} */
+	private static final int MAX_OFFSET_SECONDS = 18 * 3600;
+	private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[64]);
+	private static final ThreadLocal<Parsed> PARSED = ThreadLocal.withInitial(Parsed::new);
+	
+	private IsoTime() {}
+	
+	// ------------------------------------------------------------------------------------------------------------------------------------
+	// Writing
+	// ------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Writes an {@link Instant} the same way {@link Instant#toString()} does ({@code 2011-12-03T10:15:30.123Z})
+	 * 
+	 * @param out Where to write
+	 * @param epochSecond {@link Instant#getEpochSecond()}
+	 * @param nano {@link Instant#getNano()}
+	 * @throws IOException From the {@link JsonWriter}
+	 */
+	public static void writeInstant(final JsonWriter out, final long epochSecond, final int nano) throws IOException {
+		final char[] buf = BUFFER.get();
+		int pos = 0;
+		pos = writeEpochDay(buf, pos, Math.floorDiv(epochSecond, SECONDS_PER_DAY));
+		
+		if (pos < 0) {
+			out.value(Instant.ofEpochSecond(epochSecond, nano).toString());
+		}
+		else {
+			buf[pos++] = 'T';
+			pos = writeTime(buf, pos, (int) Math.floorMod(epochSecond, SECONDS_PER_DAY), nano, true);
+			buf[pos++] = 'Z';
+			out.value(new String(buf, 0, pos));
+		}
+	}
+	
+	/**
+	 * Writes an epoch millis timestamp as an {@link Instant} ({@code 2011-12-03T10:15:30.123Z})
+	 * 
+	 * @param out Where to write
+	 * @param epochMillis The timestamp
+	 * @throws IOException From the {@link JsonWriter}
+	 */
+	public static void writeEpochMillis(final JsonWriter out, final long epochMillis) throws IOException {
+		writeInstant(out, Math.floorDiv(epochMillis, 1000L), (int) Math.floorMod(epochMillis, 1000L) * 1_000_000);
+	}
+	
+	/**
+	 * Writes a {@link Calendar} as a zoned date-time, just like {@code ZonedDateTime.toString()}: {@code 2011-12-03T10:15:30.123-03:00[America/Sao_Paulo]}
+	 * 
+	 * @param out Where to write
+	 * @param calendar The Calendar
+	 * @throws IOException From the {@link JsonWriter}
+	 */
+	public static void writeCalendar(final JsonWriter out, final Calendar calendar) throws IOException {
+		final long millis = calendar.getTimeInMillis();
+		final TimeZone timeZone = calendar.getTimeZone();
+		final int offsetSeconds = timeZone.getOffset(millis) / 1000;
+		final String zoneId = zoneId(timeZone);
+		final long localSeconds = Math.floorDiv(millis, 1000L) + offsetSeconds;
+		
+		char[] buf = BUFFER.get();
+		if (buf.length < 48 + zoneId.length()) {
+			buf = new char[48 + zoneId.length()];
+			BUFFER.set(buf);
+		}
+		
+		int pos = 0;
+		pos = writeEpochDay(buf, pos, Math.floorDiv(localSeconds, SECONDS_PER_DAY));
+		
+		if (pos < 0) {
+			final ZoneId zone = zoneId.isEmpty() ? ZoneOffset.ofTotalSeconds(offsetSeconds) : ZoneId.of(zoneId);
+			out.value(Instant.ofEpochMilli(millis).atZone(zone).toString());
+		}
+		else {
+			buf[pos++] = 'T';
+			pos = writeTime(buf, pos, (int) Math.floorMod(localSeconds, SECONDS_PER_DAY), (int) Math.floorMod(millis, 1000L) * 1_000_000, true);
+			pos = writeOffset(buf, pos, offsetSeconds);
+			
+			if (!zoneId.isEmpty()) {
+				buf[pos++] = '[';
+				zoneId.getChars(0, zoneId.length(), buf, pos);
+				pos += zoneId.length();
+				buf[pos++] = ']';
+			}
+			
+			out.value(new String(buf, 0, pos));
+		}
+	}
+	
+	/**
+	 * The {@link ZoneId} of a {@link TimeZone}: legacy ids such as {@code PST} aren't valid ZoneIds (and so couldn't be read back), and
+	 * custom zones may not have one at all - those are written with just their offset.
+	 * 
+	 * @param timeZone The TimeZone
+	 * @return Its ZoneId's id or an empty String if it has none
+	 */
+	private static String zoneId(final TimeZone timeZone) {
+		try {
+			return timeZone.toZoneId().getId();
+		} catch (final DateTimeException e) {
+			return "";
+		}
+	}
+	
+	/**
+	 * Writes a {@link LocalDate} just like {@link LocalDate#toString()}
+	 * 
+	 * @param out Where to write
+	 * @param date The date
+	 * @throws IOException From the {@link JsonWriter}
+	 */
+	public static void writeLocalDate(final JsonWriter out, final LocalDate date) throws IOException {
+		final char[] buf = BUFFER.get();
+		int pos = 0;
+		pos = writeDate(buf, pos, date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+		
+		if (pos < 0) {
+			out.value(date.toString());
+		}
+		else {
+			out.value(new String(buf, 0, pos));
+		}
+	}
+	
+	/**
+	 * Writes a {@link LocalTime} just like {@link LocalTime#toString()}
+	 * 
+	 * @param out Where to write
+	 * @param time The time
+	 * @throws IOException From the {@link JsonWriter}
+	 */
+	public static void writeLocalTime(final JsonWriter out, final LocalTime time) throws IOException {
+		final char[] buf = BUFFER.get();
+		int pos = 0;
+		pos = writeTime(buf, pos, time.toSecondOfDay(), time.getNano(), false);
+		out.value(new String(buf, 0, pos));
+	}
+	
+	/**
+	 * Writes a {@link LocalDateTime} just like {@link LocalDateTime#toString()}
+	 * 
+	 * @param out Where to write
+	 * @param dateTime The date-time
+	 * @throws IOException From the {@link JsonWriter}
+	 */
+	public static void writeLocalDateTime(final JsonWriter out, final LocalDateTime dateTime) throws IOException {
+		final char[] buf = BUFFER.get();
+		int pos = 0;
+		pos = writeDate(buf, pos, dateTime.getYear(), dateTime.getMonthValue(), dateTime.getDayOfMonth());
+		
+		if (pos < 0) {
+			out.value(dateTime.toString());
+		}
+		else {
+			buf[pos++] = 'T';
+			pos = writeTime(buf, pos, dateTime.toLocalTime().toSecondOfDay(), dateTime.getNano(), false);
+			out.value(new String(buf, 0, pos));
+		}
+	}
+	
+	/** Converts an epoch day into {@code yyyy-MM-dd} (civil-from-days algorithm). Returns {@code -1} if the year doesn't fit 4 digits. */
+	private static int writeEpochDay(final char[] buf, final int pos, final long epochDay) {
+		final long z = epochDay + 719468;
+		final long era = (z >= 0 ? z : z - 146096) / 146097;
+		final long dayOfEra = z - era * 146097;
+		final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		final long mp = (5 * dayOfYear + 2) / 153;
+		final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		
+		return year < 0 || year > 9999 ? -1 : writeDate(buf, pos, (int) year, month, day);
+	}
+	
+	/** Writes {@code yyyy-MM-dd}. Returns {@code -1} if the year doesn't fit 4 digits. */
+	private static int writeDate(final char[] buf, int pos, final int year, final int month, final int day) {
+		if (year < 0 || year > 9999) {
+			return -1;
+		}
+		
+		pos = writeDigits(buf, pos, year / 100);
+		pos = writeDigits(buf, pos, year % 100);
+		buf[pos++] = '-';
+		pos = writeDigits(buf, pos, month);
+		buf[pos++] = '-';
+		return writeDigits(buf, pos, day);
+	}
+	
+	/** Writes {@code HH:mm[:ss[.SSS[SSS[SSS]]]]}, seconds being optional (as in {@link LocalTime#toString()}) unless {@code alwaysSeconds} */
+	private static int writeTime(final char[] buf, int pos, final int secondOfDay, final int nano, final boolean alwaysSeconds) {
+		final int second = secondOfDay % 60;
+		
+		pos = writeDigits(buf, pos, secondOfDay / 3600);
+		buf[pos++] = ':';
+		pos = writeDigits(buf, pos, (secondOfDay / 60) % 60);
+		
+		if (alwaysSeconds || second > 0 || nano > 0) {
+			buf[pos++] = ':';
+			pos = writeDigits(buf, pos, second);
+			
+			if (nano > 0) {
+				buf[pos++] = '.';
+				
+				if (nano % 1_000_000 == 0) {
+					pos = writeFraction(buf, pos, nano / 1_000_000, 3);
+				}
+				else if (nano % 1000 == 0) {
+					pos = writeFraction(buf, pos, nano / 1000, 6);
+				}
+				else {
+					pos = writeFraction(buf, pos, nano, 9);
+				}
+			}
+		}
+		
+		return pos;
+	}
+	
+	/** Writes {@code Z} or {@code +HH:mm[:ss]} (as in {@link ZoneOffset#getId()}) */
+	private static int writeOffset(final char[] buf, int pos, final int offsetSeconds) {
+		if (offsetSeconds == 0) {
+			buf[pos++] = 'Z';
+		}
+		else {
+			final int abs = Math.abs(offsetSeconds);
+			buf[pos++] = offsetSeconds < 0 ? '-' : '+';
+			pos = writeDigits(buf, pos, abs / 3600);
+			buf[pos++] = ':';
+			pos = writeDigits(buf, pos, (abs / 60) % 60);
+			
+			if (abs % 60 != 0) {
+				buf[pos++] = ':';
+				pos = writeDigits(buf, pos, abs % 60);
+			}
+		}
+		
+		return pos;
+	}
+	
+	/** Writes a 2 digit, zero padded, number */
+	private static int writeDigits(final char[] buf, final int pos, final int value) {
+		buf[pos] = (char) ('0' + value / 10);
+		buf[pos + 1] = (char) ('0' + value % 10);
+		return pos + 2;
+	}
+	
+	/** Writes a {@code digits} long, zero padded, number */
+	private static int writeFraction(final char[] buf, final int pos, int value, final int digits) {
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			buf[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		
+		return pos + digits;
+	}
+	
+	// ------------------------------------------------------------------------------------------------------------------------------------
+	// Reading
+	// ------------------------------------------------------------------------------------------------------------------------------------
+	
+	/**
+	 * Parses an ISO date-time with an offset ({@code 2011-12-03T10:15:30Z}, {@code 2011-12-03T10:15:30.5-03:00}, optionally followed by a
+	 * {@code [Zone/Id]})
+	 * 
+	 * @param value The String
+	 * @return The {@link Instant}
+	 * @throws DateTimeParseException If it isn't a valid ISO date-time with an offset
+	 */
+	public static Instant parseInstant(final String value) {
+		final Parsed parsed = PARSED.get();
+		
+		if (parsed.dateTime(value) && parsed.offset != NO_OFFSET) {
+			parsed.zone(value);
+			return Instant.ofEpochSecond(parsed.epochSecond(), parsed.nano);
+		}
+		
+		return DateTimeFormatter.ISO_DATE_TIME.parse(value, Instant::from);
+	}
+	
+	/**
+	 * Same as {@link #parseInstant(String)} but returns epoch millis
+	 * 
+	 * @param value The String
+	 * @return The epoch millis
+	 * @throws DateTimeParseException If it isn't a valid ISO date-time with an offset
+	 */
+	public static long parseEpochMillis(final String value) {
+		final Parsed parsed = PARSED.get();
+		
+		if (parsed.dateTime(value) && parsed.offset != NO_OFFSET) {
+			parsed.zone(value);
+			return parsed.epochSecond() * 1000L + parsed.nano / 1_000_000;
+		}
+		
+		return DateTimeFormatter.ISO_DATE_TIME.parse(value, Instant::from).toEpochMilli();
+	}
+	
+	/**
+	 * Parses an ISO date-time with an offset and optional zone into a {@link Calendar}. If there's a {@code [Zone/Id]} that will be the
+	 * Calendar's {@link TimeZone}, otherwise the offset is used.
+	 * 
+	 * @param value The String
+	 * @return The Calendar
+	 * @throws DateTimeParseException If it isn't a valid ISO date-time with an offset
+	 */
+	public static Calendar parseCalendar(final String value) {
+		final Parsed parsed = PARSED.get();
+		final long millis;
+		final TimeZone timeZone;
+		
+		if (parsed.dateTime(value) && parsed.offset != NO_OFFSET) {
+			millis = parsed.epochSecond() * 1000L + parsed.nano / 1_000_000;
+			final ZoneId zone = parsed.zone(value);
+			timeZone = TimeZone.getTimeZone(zone != null ? zone : ZoneOffset.ofTotalSeconds(parsed.offset));
+		}
+		else {
+			final TemporalAccessor temporal = DateTimeFormatter.ISO_DATE_TIME.parse(value);
+			millis = Instant.from(temporal).toEpochMilli();
+			timeZone = TimeZone.getTimeZone(temporal.query(TemporalQueries.zone()));
+		}
+		
+		final Calendar calendar = Calendar.getInstance(timeZone);
+		calendar.setTimeInMillis(millis);
+		return calendar;
+	}
+	
+	/**
+	 * Parses an ISO date ({@code 2011-12-03})
+	 * 
+	 * @param value The String
+	 * @return The {@link LocalDate}
+	 * @throws DateTimeParseException If it isn't a valid ISO date
+	 */
+	public static LocalDate parseLocalDate(final String value) {
+		final Parsed parsed = PARSED.get();
+		
+		if (parsed.date(value, 0) == value.length()) {
+			return LocalDate.of(parsed.year, parsed.month, parsed.day);
+		}
+		
+		return LocalDate.parse(value);
+	}
+	
+	/**
+	 * Parses an ISO time ({@code 10:15}, {@code 10:15:30}, {@code 10:15:30.123})
+	 * 
+	 * @param value The String
+	 * @return The {@link LocalTime}
+	 * @throws DateTimeParseException If it isn't a valid ISO time
+	 */
+	public static LocalTime parseLocalTime(final String value) {
+		final Parsed parsed = PARSED.get();
+		
+		if (parsed.time(value, 0) == value.length()) {
+			return LocalTime.ofNanoOfDay(parsed.secondOfDay * 1_000_000_000L + parsed.nano);
+		}
+		
+		return LocalTime.parse(value);
+	}
+	
+	/**
+	 * Parses an ISO date-time without an offset ({@code 2011-12-03T10:15:30})
+	 * 
+	 * @param value The String
+	 * @return The {@link LocalDateTime}
+	 * @throws DateTimeParseException If it isn't a valid ISO local date-time
+	 */
+	public static LocalDateTime parseLocalDateTime(final String value) {
+		final Parsed parsed = PARSED.get();
+		
+		if (parsed.dateTime(value) && parsed.offset == NO_OFFSET) {
+			return LocalDateTime.of(parsed.year, parsed.month, parsed.day, parsed.secondOfDay / 3600, (parsed.secondOfDay / 60) % 60, parsed.secondOfDay % 60, parsed.nano);
+		}
+		
+		return LocalDateTime.parse(value);
+	}
+	
+	/**
+	 * Per-thread parsing state. Every method returns the position right after what it parsed or {@code -1} if the input isn't in the shape
+	 * we handle (in which case the caller falls back to {@code java.time}).
+	 */
+	private static final class Parsed {
+		int year;
+		int month;
+		int day;
+		int secondOfDay;
+		int nano;
+		int offset;
+		int zoneStart;
+		
+		/** {@code date 'T' time [offset ['[' zone ']']]} covering the whole String */
+		boolean dateTime(final String s) {
+			offset = NO_OFFSET;
+			zoneStart = -1;
+			
+			int pos = date(s, 0);
+			if (pos < 0 || pos >= s.length() || (s.charAt(pos) != 'T' && s.charAt(pos) != 't')) {
+				return false;
+			}
+			
+			pos = time(s, pos + 1);
+			if (pos < 0) {
+				return false;
+			}
+			else if (pos == s.length()) {
+				return true;
+			}
+			
+			pos = offset(s, pos);
+			if (pos < 0) {
+				return false;
+			}
+			else if (pos == s.length()) {
+				return true;
+			}
+			else if (s.charAt(pos) == '[' && s.charAt(s.length() - 1) == ']' && s.length() - pos > 2) {
+				zoneStart = pos + 1;
+				return true;
+			}
+			
+			return false;
+		}
+		
+		/** {@code yyyy-MM-dd} */
+		int date(final String s, final int pos) {
+			if (s.length() < pos + 10 || s.charAt(pos + 4) != '-' || s.charAt(pos + 7) != '-') {
+				return -1;
+			}
+			
+			final int high = digits(s, pos);
+			final int low = digits(s, pos + 2);
+			month = digits(s, pos + 5);
+			day = digits(s, pos + 8);
+			
+			if (high < 0 || low < 0 || month < 1 || month > 12 || day < 1) {
+				return -1;
+			}
+			
+			year = high * 100 + low;
+			return day <= lengthOfMonth(year, month) ? pos + 10 : -1;
+		}
+		
+		/** {@code HH:mm[:ss[.S{1,9}]]} */
+		int time(final String s, int pos) {
+			if (s.length() < pos + 5 || s.charAt(pos + 2) != ':') {
+				return -1;
+			}
+			
+			final int hour = digits(s, pos);
+			final int minute = digits(s, pos + 3);
+			int second = 0;
+			nano = 0;
+			pos += 5;
+			
+			if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+				return -1;
+			}
+			
+			if (pos < s.length() && s.charAt(pos) == ':') {
+				second = s.length() >= pos + 3 ? digits(s, pos + 1) : -1;
+				
+				if (second < 0 || second > 59) {
+					return -1;
+				}
+				
+				pos += 3;
+				
+				if (pos < s.length() && s.charAt(pos) == '.') {
+					int scale = 100_000_000;
+					pos++;
+					
+					while (pos < s.length() && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
+						if (scale == 0) {
+							return -1;
+						}
+						
+						nano += (s.charAt(pos++) - '0') * scale;
+						scale /= 10;
+					}
+					
+					if (scale == 100_000_000) {
+						return -1;
+					}
+				}
+			}
+			
+			secondOfDay = hour * 3600 + minute * 60 + second;
+			return pos;
+		}
+		
+		/** {@code Z} or {@code +HH:mm[:ss]} */
+		int offset(final String s, int pos) {
+			final char sign = s.charAt(pos);
+			
+			if (sign == 'Z' || sign == 'z') {
+				offset = 0;
+				return pos + 1;
+			}
+			else if ((sign != '+' && sign != '-') || s.length() < pos + 6 || s.charAt(pos + 3) != ':') {
+				return -1;
+			}
+			
+			final int hours = digits(s, pos + 1);
+			final int minutes = digits(s, pos + 4);
+			int seconds = 0;
+			pos += 6;
+			
+			if (pos < s.length() && s.charAt(pos) == ':') {
+				seconds = s.length() >= pos + 3 ? digits(s, pos + 1) : -1;
+				pos += 3;
+			}
+			
+			if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59) {
+				return -1;
+			}
+			
+			final int total = hours * 3600 + minutes * 60 + seconds;
+			if (total > MAX_OFFSET_SECONDS) {
+				return -1;
+			}
+			
+			offset = sign == '-' ? -total : total;
+			return pos;
+		}
+		
+		/**
+		 * @param s The parsed String
+		 * @return Its {@code [Zone/Id]} or {@code null} if it has none
+		 * @throws DateTimeParseException If the zone is unknown
+		 */
+		ZoneId zone(final String s) {
+			if (zoneStart < 0) {
+				return null;
+			}
+			
+			try {
+				return ZoneId.of(s.substring(zoneStart, s.length() - 1));
+			} catch (final DateTimeException e) {
+				throw new DateTimeParseException("Unknown time-zone in '" + s + "'", s, zoneStart, e);
+			}
+		}
+		
+		/** Days-from-civil algorithm, then the time and offset */
+		long epochSecond() {
+			final long y = month <= 2 ? year - 1 : year;
+			final long era = (y >= 0 ? y : y - 399) / 400;
+			final long yearOfEra = y - era * 400;
+			final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+			final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+			final long epochDay = era * 146097 + dayOfEra - 719468;
+			
+			return epochDay * SECONDS_PER_DAY + secondOfDay - offset;
+		}
+		
+		private static int digits(final String s, final int pos) {
+			final int tens = s.charAt(pos) - '0';
+			final int units = s.charAt(pos + 1) - '0';
+			return tens < 0 || tens > 9 || units < 0 || units > 9 ? -1 : tens * 10 + units;
+		}
+		
+		private static int lengthOfMonth(final int year, final int month) {
+			switch (month) {
+				case 2: return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+				case 4: case 6: case 9: case 11: return 30;
+				default: return 31;
+			}
+		}
+	}
+}
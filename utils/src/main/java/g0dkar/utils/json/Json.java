@@ -1,6 +1,13 @@
 package g0dkar.utils.json;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -12,7 +19,14 @@ import java.util.Map;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import g0dkar.utils.Maps;
 
 /**
  * Utility methods for working with JSON. Currently implemented with {@link Gson Google Gson}
@@ -25,19 +39,42 @@ public class Json {
 	public static final Gson GSON = builder().create();
 	
 	/**
-	 * Builds a nice, default {@link GsonBuilder} ignoring {@code transient} and {@code static} fields and
-	 * supports ISO {@link Date}, {@link Calendar} and Java 8 Time API types
+	 * Builds a nice, default {@link GsonBuilder} ignoring {@code transient} and {@code static} fields,
+	 * supports ISO {@link Date}, {@link Calendar} and Java 8 Time API types and uses the {@link GenerateTypeAdapter generated adapters}.
+	 * Variants that are used over and over should be {@link GsonProfiles#register(String, java.util.function.Consumer, java.lang.reflect.Type...) registered}
+	 * once instead of rebuilt with this every time.
 	 * @return
 	 */
 	public static GsonBuilder builder() {
+		return builder(false);
+	}
+	
+	/**
+	 * Same as {@link #builder()} but {@link Date}, {@link Calendar} and {@link Instant} may be written as epoch millis numbers instead of ISO
+	 * strings (reading accepts both either way)
+	 * @param epochMillis Write {@link Date}, {@link Calendar} and {@link Instant} as epoch millis?
+	 * @return
+	 */
+	public static GsonBuilder builder(final boolean epochMillis) {
 		return new GsonBuilder()
 				.excludeFieldsWithModifiers(Modifier.TRANSIENT, Modifier.STATIC)
-				.registerTypeAdapter(Date.class, new GsonDateConverter())
-				.registerTypeAdapter(Calendar.class, new GsonCalendarConverter())
-				.registerTypeAdapter(Instant.class, new GsonInstantConverter())
+				.registerTypeAdapter(Date.class, new GsonDateConverter(epochMillis))
+				.registerTypeAdapter(Calendar.class, new GsonCalendarConverter(epochMillis))
+				.registerTypeAdapter(Instant.class, new GsonInstantConverter(epochMillis))
 				.registerTypeAdapter(LocalDate.class, new GsonLocalDateConverter())
 				.registerTypeAdapter(LocalTime.class, new GsonLocalTimeConverter())
-				.registerTypeAdapter(LocalDateTime.class, new GsonLocalDateTimeConverter());
+				.registerTypeAdapter(LocalDateTime.class, new GsonLocalDateTimeConverter())
+				.registerTypeAdapterFactory(GeneratedTypeAdapterFactory.INSTANCE);
+	}
+	
+	/**
+	 * @param profile A {@link GsonProfiles profile} name
+	 * @return The shared {@link Gson} instance for that profile
+	 * @throws IllegalArgumentException There's no such profile
+	 * @see GsonProfiles#get(String)
+	 */
+	public static Gson gson(final String profile) {
+		return GsonProfiles.get(profile);
 	}
 	
 	/**
@@ -52,6 +89,44 @@ public class Json {
 		return GSON.toJson(object);
 	}
 	
+	/**
+	 * Same as {@link #toJson(Object)} but writes UTF-8 straight to an {@link OutputStream} (through a pooled {@link Utf8Writer} buffer), without
+	 * building a {@link String} first. The stream is flushed but not closed.
+	 * 
+	 * @param object The object
+	 * @param out Where to write the Json to
+	 * @throws IOException From the {@link OutputStream}
+	 */
+	public static void toJson(final Object object, final OutputStream out) throws IOException {
+		try (final Utf8Writer writer = Utf8Writer.lease(out)) {
+			GSON.toJson(object, writer);
+			writer.flush();
+		} catch (final JsonIOException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			
+			throw e;
+		}
+	}
+	
+	/**
+	 * Same as {@link #toJson(Object)} but encodes the Json as UTF-8 into this thread's pooled {@link Utf8Writer} buffer.
+	 * <strong>The returned {@link ByteBuffer} is only valid until the next {@code toJsonUtf8} call on the same thread</strong>: copy it if
+	 * it must be kept around.
+	 * 
+	 * @param object The object
+	 * @return A read-only view of the UTF-8 Json
+	 */
+	public static ByteBuffer toJsonUtf8(final Object object) {
+		try (final Utf8Writer writer = Utf8Writer.lease()) {
+			GSON.toJson(object, writer);
+			return writer.toByteBuffer();
+		} catch (final IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+	
 	/**
 	 * {@link Gson#fromJson(String, Class) Turns} a Json string back to an object
 	 * @param json The Json String
@@ -72,6 +147,39 @@ public class Json {
 		return GSON.fromJson(json, Map.class);
 	}
 	
+	/**
+	 * Turns only part of a Json into a {@link Map}: just the values at the specified {@code dot.separated.paths} (the same ones {@link Maps}
+	 * uses) are decoded, everything else is skipped without being decoded and reading stops as soon as all of them were found.
+	 * <pre>Maps.use(Json.asJsonMap(json, "event.type", "data.object.id")).get("data.object.id")</pre>
+	 * @param json The Json (must be an object)
+	 * @param paths Which paths to decode. If a path points to an object or array it's decoded whole.
+	 * @return A Map with (nested, as in {@link #asJsonMap(String)}) just the values that were found
+	 * @throws JsonParseException Invalid/malformed Json
+	 */
+	public static Map<String, Object> asJsonMap(final String json, final String... paths) {
+		return asJsonMap(new StringReader(json), paths);
+	}
+	
+	/**
+	 * Same as {@link #asJsonMap(String, String...)} but reads from a {@link Reader}, so big payloads don't even need to be fully read
+	 * @param json The Json (must be an object)
+	 * @param paths Which paths to decode. If a path points to an object or array it's decoded whole.
+	 * @return A Map with (nested, as in {@link #asJsonMap(String)}) just the values that were found
+	 * @throws JsonParseException Invalid/malformed Json
+	 */
+	public static Map<String, Object> asJsonMap(final Reader json, final String... paths) {
+		final JsonReader reader = new JsonReader(json);
+		reader.setLenient(true);
+		
+		try {
+			return new PartialJsonReader(GSON.getAdapter(Object.class), paths).read(reader);
+		} catch (final IllegalStateException | MalformedJsonException | EOFException e) {
+			throw new JsonSyntaxException(e);
+		} catch (final IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+	
 	/**
 	 * Builds a Json Map for a {@link Throwable} object.
 	 * @param throwable The Throwable
@@ -82,20 +190,76 @@ public class Json {
 	}
 	
 	/**
-	 * Builds a Json Map for a {@link Throwable} object. Optionally, recursively including it's {@link Throwable#getCause() stack trace}.
+	 * Builds a Json Map for a {@link Throwable} object. Optionally, recursively including it's {@link Throwable#getCause() stack trace}
+	 * (up to {@link ThrowableWriter#DEFAULT_MAX_CAUSES} causes, stopping at circular ones).
 	 * @param throwable The Throwable
 	 * @param withStacktrace Include the {@link Throwable#getCause() stack trace}?
 	 * @return A Json Map with the {@link Throwable} class name and it's {@link Throwable#getMessage() message}.
+	 * @see #asJson(Throwable, boolean)
 	 */
 	public static Map<String, Object> asJsonMap(final Throwable throwable, final boolean withStacktrace) {
 		final Map<String, Object> json = new HashMap<>(withStacktrace && throwable.getCause() != null ? 3 : 2);
-		json.put("exception", throwable.getClass().getName());
-		json.put("message", throwable.getMessage());
+		Map<String, Object> current = json;
+		Throwable currentThrowable = throwable;
 		
-		if (withStacktrace && throwable.getCause() != null) {
-			json.put("cause", asJsonMap(throwable.getCause(), true));
+		for (int depth = 0; currentThrowable != null; depth++) {
+			current.put("exception", currentThrowable.getClass().getName());
+			current.put("message", currentThrowable.getMessage());
+			
+			final Throwable cause = currentThrowable.getCause();
+			if (!withStacktrace || cause == null || cause == currentThrowable || depth == ThrowableWriter.DEFAULT_MAX_CAUSES || isCause(throwable, cause, depth)) {
+				break;
+			}
+			
+			final Map<String, Object> causeJson = new HashMap<>(3);
+			current.put("cause", causeJson);
+			current = causeJson;
+			currentThrowable = cause;
 		}
 		
 		return json;
 	}
+	
+	/** Is {@code candidate} one of the first {@code depth} throwables of the cause chain? (circular causes) */
+	private static boolean isCause(final Throwable throwable, final Throwable candidate, final int depth) {
+		Throwable current = throwable;
+		for (int i = 0; i < depth && current != null; i++, current = current.getCause()) {
+			if (current == candidate) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Writes a {@link Throwable} straight to Json, optionally with (a capped amount of) its stack trace and causes. Much cheaper than
+	 * {@code toJson(asJsonMap(throwable, true))} since there are no intermediate Maps and stack traces are cached.
+	 * @param throwable The Throwable
+	 * @param withStacktrace Include the stack trace and {@link Throwable#getCause() causes}?
+	 * @return The Json
+	 * @see ThrowableWriter
+	 */
+	public static String asJson(final Throwable throwable, final boolean withStacktrace) {
+		final StringWriter json = new StringWriter(withStacktrace ? 2048 : 128);
+		
+		try {
+			write(GSON.newJsonWriter(json), throwable, withStacktrace);
+		} catch (final IOException e) {
+			throw new JsonIOException(e);
+		}
+		
+		return json.toString();
+	}
+	
+	/**
+	 * Writes a {@link Throwable} into a {@link JsonWriter} (for instance, as part of an error envelope)
+	 * @param out Where to write
+	 * @param throwable The Throwable
+	 * @param withStacktrace Include the stack trace and {@link Throwable#getCause() causes}?
+	 * @throws IOException From the {@link JsonWriter}
+	 * @see ThrowableWriter
+	 */
+	public static void write(final JsonWriter out, final Throwable throwable, final boolean withStacktrace) throws IOException {
+		ThrowableWriter.DEFAULT.write(out, throwable, withStacktrace);
+	}
 }
@@ -0,0 +1,283 @@
+package g0dkar.utils.json;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * <p>Bulk import/export of Json Lines (newline-delimited Json) files.</p>
+ * 
+ * <p>Writing is done through a {@link JsonLinesWriter}. Reading {@link FileChannel#map(FileChannel.MapMode, long, long) memory maps} the file
+ * in chunks (split at line boundaries) and decodes each chunk in parallel on a {@link ForkJoinPool}. Records can be handed to the consumer
+ * in file order (decoded chunks are then buffered until their turn comes, with at most twice the pool's parallelism in flight) or as soon as
+ * they are decoded, from the pool's threads (in which case the consumer must be thread-safe).</p>
+ * 
+ * <pre>
+ * try (JsonLinesWriter out = JsonLines.writer(path)) { out.writeAll(records); }
+ * Stats stats = JsonLines.read(path, Record.class, record -&gt; ..., false);
+ * </pre>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class JsonLines {
+	/** Size of each memory mapped chunk (a chunk grows if a single line is bigger than this) */
+	public static final int CHUNK_SIZE = 8 * 1024 * 1024;
+	
+	private JsonLines() {}
+	
+	/**
+	 * @param file File to create (or truncate)
+	 * @return A {@link JsonLinesWriter} using {@link Json#GSON}
+	 * @throws IOException Opening the file
+	 */
+	public static JsonLinesWriter writer(final Path file) throws IOException {
+		return new JsonLinesWriter(file);
+	}
+	
+	/**
+	 * Reads every record of a Json Lines file using {@link Json#GSON} and the {@link ForkJoinPool#commonPool() common pool}
+	 * 
+	 * @param file The file
+	 * @param type The records' type
+	 * @param consumer Receives every record
+	 * @param ordered Should records be handed to {@code consumer} in file order (on the calling thread)? If {@code false} they are handed
+	 *            over from the pool's threads, as soon as they are decoded.
+	 * @return How many records were read and how fast
+	 * @throws IOException Reading the file
+	 * @throws JsonParseException Invalid/malformed Json record
+	 */
+	public static <T> Stats read(final Path file, final Class<T> type, final Consumer<? super T> consumer, final boolean ordered) throws IOException {
+		return read(file, type, consumer, ordered, Json.GSON, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Reads every record of a Json Lines file
+	 * 
+	 * @param file The file
+	 * @param type The records' type (may be generic)
+	 * @param consumer Receives every record
+	 * @param ordered Should records be handed to {@code consumer} in file order (on the calling thread)? If {@code false} they are handed
+	 *            over from the pool's threads, as soon as they are decoded.
+	 * @param gson Which {@link Gson} to use
+	 * @param pool Where to decode the records
+	 * @return How many records were read and how fast
+	 * @throws IOException Reading the file
+	 * @throws JsonParseException Invalid/malformed Json record
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Stats read(final Path file, final Type type, final Consumer<? super T> consumer, final boolean ordered, final Gson gson, final ForkJoinPool pool) throws IOException {
+		final long start = System.nanoTime();
+		final TypeAdapter<T> adapter = (TypeAdapter<T>) gson.getAdapter(TypeToken.get(type));
+		final Deque<ForkJoinTask<Decoded<T>>> inFlight = new ArrayDeque<>();
+		final int maxInFlight = Math.max(2, pool.getParallelism() * 2);
+		long records = 0;
+		long size;
+		
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			size = channel.size();
+			
+			for (long position = 0; position < size;) {
+				final MappedByteBuffer chunk = nextChunk(channel, position, size);
+				final long chunkStart = position;
+				position += chunk.remaining();
+				
+				if (inFlight.size() >= maxInFlight) {
+					records += consume(inFlight.removeFirst(), consumer, ordered);
+				}
+				
+				inFlight.addLast(pool.submit(() -> decode(chunk, chunkStart, adapter, ordered ? null : consumer)));
+			}
+			
+			while (!inFlight.isEmpty()) {
+				records += consume(inFlight.removeFirst(), consumer, ordered);
+			}
+		} finally {
+			for (final ForkJoinTask<?> task : inFlight) {
+				task.cancel(false);
+			}
+		}
+		
+		return new Stats(records, size, System.nanoTime() - start);
+	}
+	
+	/** Maps the next chunk starting at {@code position}, ending right after a {@code '\n'} (or at the end of the file) */
+	private static MappedByteBuffer nextChunk(final FileChannel channel, final long position, final long size) throws IOException {
+		long length = Math.min(CHUNK_SIZE, size - position);
+		
+		while (true) {
+			final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			
+			if (position + length == size) {
+				return chunk;
+			}
+			
+			for (int i = (int) length - 1; i >= 0; i--) {
+				if (chunk.get(i) == '\n') {
+					chunk.limit(i + 1);
+					return chunk;
+				}
+			}
+			
+			// A single line bigger than the chunk
+			if (length == Integer.MAX_VALUE) {
+				throw new IOException("The line starting at byte " + position + " is longer than " + Integer.MAX_VALUE + " bytes");
+			}
+			
+			length = Math.min(Math.min(length * 2, Integer.MAX_VALUE), size - position);
+		}
+	}
+	
+	private static <T> long consume(final ForkJoinTask<Decoded<T>> task, final Consumer<? super T> consumer, final boolean ordered) {
+		final Decoded<T> decoded = task.join();
+		
+		if (ordered) {
+			for (final T record : decoded.records) {
+				consumer.accept(record);
+			}
+		}
+		
+		return decoded.count;
+	}
+	
+	/**
+	 * Decodes every line of a chunk. If there's a {@code consumer} records are handed to it right away (and only counted), otherwise they
+	 * are returned.
+	 */
+	private static <T> Decoded<T> decode(final MappedByteBuffer chunk, final long chunkStart, final TypeAdapter<T> adapter, final Consumer<? super T> consumer) {
+		final CharBuffer chars;
+		try {
+			chars = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE)
+					.decode(chunk);
+		} catch (final IOException e) {
+			throw new JsonIOException(e);
+		}
+		
+		final char[] array = chars.array();
+		final int end = chars.arrayOffset() + chars.limit();
+		final List<T> records = consumer == null ? new ArrayList<>() : null;
+		int count = 0;
+		int lineStart = chars.arrayOffset();
+		
+		// Byte Order Mark at the start of the file
+		if (chunkStart == 0 && lineStart < end && array[lineStart] == '\uFEFF') {
+			lineStart++;
+		}
+		
+		for (int i = lineStart; i <= end; i++) {
+			if (i == end || array[i] == '\n') {
+				int lineEnd = i;
+				if (lineEnd > lineStart && array[lineEnd - 1] == '\r') {
+					lineEnd--;
+				}
+				
+				if (!isBlank(array, lineStart, lineEnd)) {
+					final T record;
+					try {
+						final JsonReader reader = new JsonReader(new CharArrayReader(array, lineStart, lineEnd - lineStart));
+						reader.setLenient(true);
+						record = adapter.read(reader);
+					} catch (final IOException | IllegalStateException e) {
+						throw new JsonSyntaxException("Invalid record in the chunk starting at byte " + chunkStart + ": " + new String(array, lineStart, Math.min(lineEnd - lineStart, 200)), e);
+					}
+					
+					if (consumer == null) {
+						records.add(record);
+					}
+					else {
+						consumer.accept(record);
+					}
+					count++;
+				}
+				
+				lineStart = i + 1;
+			}
+		}
+		
+		return new Decoded<>(records, count);
+	}
+	
+	private static boolean isBlank(final char[] array, final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			if (!Character.isWhitespace(array[i])) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/** What a chunk's task hands back: its records (if they're to be consumed in order) and how many there were */
+	private static class Decoded<T> {
+		final List<T> records;
+		final int count;
+		
+		Decoded(final List<T> records, final int count) {
+			this.records = records;
+			this.count = count;
+		}
+	}
+	
+	/**
+	 * How many records (and bytes) were read/written and how long it took
+	 * 
+	 * @author Rafael Lins
+	 *
+	 */
+	public static class Stats {
+		private final long records;
+		private final long bytes;
+		private final long nanos;
+		
+		public Stats(final long records, final long bytes, final long nanos) {
+			this.records = records;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+		
+		public long getRecords() {
+			return records;
+		}
+		
+		public long getBytes() {
+			return bytes;
+		}
+		
+		public long getNanos() {
+			return nanos;
+		}
+		
+		public double getRecordsPerSecond() {
+			return nanos > 0 ? records * 1_000_000_000d / nanos : 0;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%d records (%d bytes) in %.3fs: %.0f records/s", records, bytes, nanos / 1_000_000_000d, getRecordsPerSecond());
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package g0dkar.utils.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.gson.Gson;
+
+import g0dkar.utils.json.JsonLines.Stats;
+
+/**
+ * <p>Writes records as Json Lines (one {@link Json#toJson(Object) Json} per line). Records are encoded into a single reused UTF-8 buffer
+ * ({@link Utf8Writer}) and written to the channel once every {@code batchSize} records, instead of one write (and one {@link String}) per
+ * record.</p>
+ * 
+ * <p>Not thread-safe.</p>
+ * 
+ * @author Rafael Lins
+ * @see JsonLines
+ */
+public class JsonLinesWriter implements Closeable, Flushable {
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	
+	private final WritableByteChannel channel;
+	private final Gson gson;
+	private final int batchSize;
+	private final Utf8Writer buffer = new Utf8Writer();
+	private final long start = System.nanoTime();
+	private int pending;
+	private long records;
+	private long bytes;
+	
+	/**
+	 * Creates (or truncates) {@code file} and writes to it using {@link Json#GSON} and {@link #DEFAULT_BATCH_SIZE}
+	 * @param file The file
+	 * @throws IOException Opening the file
+	 */
+	public JsonLinesWriter(final Path file) throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), Json.GSON, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * @param channel Where to write (it's closed by {@link #close()})
+	 * @param gson Which {@link Gson} to use
+	 * @param batchSize How many records are buffered before being written to the channel
+	 */
+	public JsonLinesWriter(final WritableByteChannel channel, final Gson gson, final int batchSize) {
+		this.channel = channel;
+		this.gson = gson;
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Appends a record
+	 * @param record The record
+	 * @return {@code this}
+	 * @throws IOException Writing to the channel
+	 */
+	public JsonLinesWriter write(final Object record) throws IOException {
+		gson.toJson(record, buffer);
+		buffer.write('\n');
+		records++;
+		
+		if (++pending >= batchSize) {
+			flush();
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Appends all records
+	 * @param records The records
+	 * @return {@code this}
+	 * @throws IOException Writing to the channel
+	 */
+	public JsonLinesWriter writeAll(final Iterable<?> records) throws IOException {
+		for (final Object record : records) {
+			write(record);
+		}
+		
+		return this;
+	}
+	
+	/** Writes whatever is buffered to the channel */
+	@Override
+	public void flush() throws IOException {
+		final ByteBuffer bytes = buffer.toByteBuffer();
+		this.bytes += bytes.remaining();
+		
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		
+		buffer.clear();
+		pending = 0;
+	}
+	
+	/** @return How many records (and bytes) were written so far and how fast */
+	public Stats getStats() {
+		return new Stats(records, bytes + buffer.size(), System.nanoTime() - start);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package g0dkar.utils.json;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import g0dkar.utils.Maps;
+
+/**
+ * Reads only some {@code dot.separated.paths} (the same ones {@link Maps} uses) out of a Json object, {@link JsonReader#skipValue() skipping}
+ * everything else without decoding it. Reading stops as soon as every wanted path has been found.
+ * 
+ * @author Rafael Lins
+ * @see Json#asJsonMap(String, String...)
+ */
+class PartialJsonReader {
+	private final Node root = new Node();
+	private final TypeAdapter<Object> values;
+	private int remaining;
+	
+	/**
+	 * @param values Adapter used to decode the values at the wanted paths (usually {@code Json.GSON.getAdapter(Object.class)})
+	 * @param paths Wanted paths
+	 */
+	PartialJsonReader(final TypeAdapter<Object> values, final String... paths) {
+		this.values = values;
+		
+		for (final String path : paths) {
+			Node node = root;
+			for (final String part : path.split("\\.")) {
+				node = node.children.computeIfAbsent(part, k -> new Node());
+			}
+			node.whole = true;
+		}
+		
+		// A wanted path inside another wanted path is already covered by it
+		remaining = countLeaves(root);
+	}
+	
+	private static int countLeaves(final Node node) {
+		if (node.whole) {
+			node.children.clear();
+			return 1;
+		}
+		
+		int leaves = 0;
+		for (final Node child : node.children.values()) {
+			leaves += countLeaves(child);
+		}
+		return leaves;
+	}
+	
+	/**
+	 * @param in The reader, positioned at the start of an object
+	 * @return A Map with just the wanted paths that were found (nested just like {@link Json#asJsonMap(String)} would)
+	 * @throws IOException From the reader (including malformed Json)
+	 */
+	Map<String, Object> read(final JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		
+		return readObject(in, root);
+	}
+	
+	private Map<String, Object> readObject(final JsonReader in, final Node node) throws IOException {
+		final Map<String, Object> map = new LinkedHashMap<>();
+		in.beginObject();
+		
+		while (remaining > 0 && in.hasNext()) {
+			final String name = in.nextName();
+			final Node child = node.children.get(name);
+			
+			if (child == null) {
+				in.skipValue();
+			}
+			else if (child.whole) {
+				map.put(name, values.read(in));
+				remaining--;
+			}
+			else if (in.peek() == JsonToken.BEGIN_OBJECT) {
+				final Map<String, Object> nested = readObject(in, child);
+				
+				if (!nested.isEmpty()) {
+					map.put(name, nested);
+				}
+			}
+			else {
+				in.skipValue();
+			}
+		}
+		
+		// Once everything was found the rest of the document is simply left unread
+		if (remaining > 0) {
+			in.endObject();
+		}
+		
+		return map;
+	}
+	
+	/** A node in the tree of wanted paths */
+	private static class Node {
+		final Map<String, Node> children = new HashMap<>(4);
+		boolean whole;
+	}
+}
@@ -0,0 +1,192 @@
+package g0dkar.utils.json;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * <p>Writes a {@link Throwable} straight into a {@link JsonWriter} (no intermediate {@link Map Maps}):</p>
+ * 
+ * <pre>{"exception": "...", "message": "...", "stacktrace": ["...", ...], "frames_omitted": 10, "cause": { ... }}</pre>
+ * 
+ * <p>At most {@code maxFrames} stack frames and {@code maxCauses} causes are written. Like {@link Throwable#printStackTrace()}, frames a
+ * cause has in common with the exception it caused are not repeated ({@code "frames_in_common"} tells how many there were) and circular
+ * causes are cut short ({@code "circular_cause"}). The frames of each distinct (truncated) stack trace are cached as Strings, so repeating
+ * exceptions (which is what error storms are made of) only pay for a lookup and the writing itself - which goes through {@code out} like
+ * everything else, so its escaping (e.g. HTML-safe) applies and any {@link JsonWriter} works.</p>
+ * 
+ * @author Rafael Lins
+ * @see Json#asJson(Throwable, boolean)
+ */
+public class ThrowableWriter {
+	public static final int DEFAULT_MAX_FRAMES = 32;
+	public static final int DEFAULT_MAX_CAUSES = 8;
+	/** How many distinct stack traces are cached. Once it's full new ones are just not cached. */
+	public static final int CACHE_SIZE = 1024;
+	
+	/** Instance with the default limits */
+	public static final ThrowableWriter DEFAULT = new ThrowableWriter(DEFAULT_MAX_FRAMES, DEFAULT_MAX_CAUSES);
+	
+	private final int maxFrames;
+	private final int maxCauses;
+	private final Map<Frames, String[]> cache = new ConcurrentHashMap<>();
+	
+	/**
+	 * @param maxFrames Maximum number of stack frames written per exception
+	 * @param maxCauses Maximum number of causes written
+	 */
+	public ThrowableWriter(final int maxFrames, final int maxCauses) {
+		this.maxFrames = maxFrames;
+		this.maxCauses = maxCauses;
+	}
+	
+	/**
+	 * Writes the Throwable as a Json object
+	 * 
+	 * @param out Where to write
+	 * @param throwable The Throwable
+	 * @param withStacktrace Include the stack trace and the {@link Throwable#getCause() causes}?
+	 * @throws IOException From the {@link JsonWriter}
+	 */
+	public void write(final JsonWriter out, final Throwable throwable, final boolean withStacktrace) throws IOException {
+		if (throwable == null) {
+			out.nullValue();
+			return;
+		}
+		
+		final Throwable[] chain = new Throwable[maxCauses + 1];
+		StackTraceElement[] enclosingTrace = null;
+		Throwable current = throwable;
+		int depth = 0;
+		
+		while (true) {
+			chain[depth] = current;
+			out.beginObject();
+			out.name("exception").value(current.getClass().getName());
+			out.name("message").value(current.getMessage());
+			
+			if (!withStacktrace) {
+				break;
+			}
+			
+			final StackTraceElement[] trace = current.getStackTrace();
+			writeFrames(out, trace, enclosingTrace);
+			enclosingTrace = trace;
+			
+			final Throwable cause = current.getCause();
+			if (cause == null) {
+				break;
+			}
+			else if (isCircular(chain, depth, cause)) {
+				out.name("circular_cause").value(cause.getClass().getName());
+				break;
+			}
+			else if (depth == maxCauses) {
+				out.name("causes_omitted").value(true);
+				break;
+			}
+			
+			out.name("cause");
+			current = cause;
+			depth++;
+		}
+		
+		for (int i = 0; i <= depth; i++) {
+			out.endObject();
+		}
+	}
+	
+	private static boolean isCircular(final Throwable[] chain, final int depth, final Throwable cause) {
+		for (int i = 0; i <= depth; i++) {
+			if (chain[i] == cause) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private void writeFrames(final JsonWriter out, final StackTraceElement[] trace, final StackTraceElement[] enclosingTrace) throws IOException {
+		// Frames in common with the enclosing trace (counted from the bottom), as in Throwable.printStackTrace()
+		int inCommon = 0;
+		if (enclosingTrace != null) {
+			for (int m = trace.length - 1, n = enclosingTrace.length - 1; m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n]); m--, n--) {
+				inCommon++;
+			}
+		}
+		
+		final int length = Math.min(trace.length - inCommon, maxFrames);
+		final Frames key = new Frames(trace, length);
+		String[] frames = cache.get(key);
+		
+		if (frames == null) {
+			frames = new String[length];
+			for (int i = 0; i < length; i++) {
+				frames[i] = trace[i].toString();
+			}
+			
+			if (cache.size() < CACHE_SIZE) {
+				cache.put(key, frames);
+			}
+		}
+		
+		out.name("stacktrace").beginArray();
+		for (final String frame : frames) {
+			out.value(frame);
+		}
+		out.endArray();
+		
+		if (trace.length - inCommon > length) {
+			out.name("frames_omitted").value(trace.length - inCommon - length);
+		}
+		
+		if (inCommon > 0) {
+			out.name("frames_in_common").value(inCommon);
+		}
+	}
+	
+	/** Cache key: the first {@code length} frames of a stack trace */
+	private static final class Frames {
+		private final StackTraceElement[] trace;
+		private final int length;
+		private final int hash;
+		
+		Frames(final StackTraceElement[] trace, final int length) {
+			this.trace = trace;
+			this.length = length;
+			
+			int h = length;
+			for (int i = 0; i < length; i++) {
+				h = 31 * h + trace[i].hashCode();
+			}
+			hash = h;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Frames)) {
+				return false;
+			}
+			
+			final Frames other = (Frames) obj;
+			if (hash != other.hash || length != other.length) {
+				return false;
+			}
+			
+			for (int i = 0; i < length; i++) {
+				if (!trace[i].equals(other.trace[i])) {
+					return false;
+				}
+			}
+			
+			return true;
+		}
+	}
+}
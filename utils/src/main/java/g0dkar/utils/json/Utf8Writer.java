@@ -0,0 +1,259 @@
+package g0dkar.utils.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>A {@link Writer} that encodes straight into a UTF-8 {@code byte[]}, which is kept per-thread and reused between calls (see
+ * {@link #lease()}). It either grows to hold the whole output (to be read with {@link #toByteBuffer()}) or, when
+ * {@link #lease(OutputStream) leased with a sink}, drains to that {@link OutputStream} whenever it's full.</p>
+ * 
+ * <p>Unpaired surrogates are written as {@code ?}, just like {@link String#getBytes(java.nio.charset.Charset)} does.</p>
+ * 
+ * @author Rafael Lins
+ * @see Json#toJson(Object, OutputStream)
+ * @see Json#toJsonUtf8(Object)
+ */
+public class Utf8Writer extends Writer {
+	/** Initial buffer size */
+	public static final int INITIAL_SIZE = 8 * 1024;
+	/** Buffers that grew beyond this are dropped instead of being kept around for the next lease */
+	public static final int MAX_RETAINED_SIZE = 1024 * 1024;
+	
+	private static final ThreadLocal<Utf8Writer> POOL = ThreadLocal.withInitial(Utf8Writer::new);
+	
+	private byte[] buffer = new byte[INITIAL_SIZE];
+	private int count;
+	private OutputStream sink;
+	private char highSurrogate;
+	private boolean leased;
+	
+	public Utf8Writer() {
+		
+	}
+	
+	/**
+	 * Leases this thread's writer. Its contents (and any {@link #toByteBuffer() ByteBuffer} returned from it) are valid until the next lease
+	 * on the same thread. If the thread's writer is still leased (a nested call) a brand new one is returned.
+	 * 
+	 * @return An empty writer, which must be {@link #close() closed} when done
+	 */
+	public static Utf8Writer lease() {
+		return lease(null);
+	}
+	
+	/**
+	 * Same as {@link #lease()} but everything written is drained into {@code sink} (on every full buffer and on {@link #flush()}/{@link #close()})
+	 * 
+	 * @param sink Where to write the bytes to
+	 * @return An empty writer, which must be {@link #close() closed} when done
+	 */
+	public static Utf8Writer lease(final OutputStream sink) {
+		Utf8Writer writer = POOL.get();
+		
+		if (writer.leased) {
+			writer = new Utf8Writer();
+		}
+		else if (writer.buffer.length > MAX_RETAINED_SIZE) {
+			writer.buffer = new byte[INITIAL_SIZE];
+		}
+		
+		writer.leased = true;
+		writer.count = 0;
+		writer.highSurrogate = 0;
+		writer.sink = sink;
+		return writer;
+	}
+	
+	@Override
+	public void write(final int c) throws IOException {
+		ensure(4);
+		encode((char) c);
+	}
+	
+	@Override
+	public void write(final char[] chars, final int offset, final int length) throws IOException {
+		for (int i = offset, end = offset + length; i < end;) {
+			ensure(4);
+			
+			// ASCII fast path: copy as much as fits
+			final byte[] buf = buffer;
+			int pos = count;
+			for (final int max = Math.min(end, i + buf.length - pos); i < max && chars[i] < 0x80 && highSurrogate == 0; i++) {
+				buf[pos++] = (byte) chars[i];
+			}
+			count = pos;
+			
+			if (i < end && (chars[i] >= 0x80 || highSurrogate != 0)) {
+				ensure(4);
+				encode(chars[i++]);
+			}
+		}
+	}
+	
+	@Override
+	public void write(final String str, final int offset, final int length) throws IOException {
+		for (int i = offset, end = offset + length; i < end;) {
+			ensure(4);
+			
+			final byte[] buf = buffer;
+			int pos = count;
+			char c;
+			for (final int max = Math.min(end, i + buf.length - pos); i < max && (c = str.charAt(i)) < 0x80 && highSurrogate == 0; i++) {
+				buf[pos++] = (byte) c;
+			}
+			count = pos;
+			
+			if (i < end && (str.charAt(i) >= 0x80 || highSurrogate != 0)) {
+				ensure(4);
+				encode(str.charAt(i++));
+			}
+		}
+	}
+	
+	@Override
+	public Writer append(final CharSequence csq) throws IOException {
+		final CharSequence value = csq == null ? "null" : csq;
+		return append(value, 0, value.length());
+	}
+	
+	@Override
+	public Writer append(final CharSequence csq, final int start, final int end) throws IOException {
+		final CharSequence value = csq == null ? "null" : csq;
+		
+		if (value instanceof String) {
+			write((String) value, start, end - start);
+		}
+		else {
+			for (int i = start; i < end; i++) {
+				write(value.charAt(i));
+			}
+		}
+		
+		return this;
+	}
+	
+	/** Encodes a single char. There must be room for at least 4 bytes. */
+	private void encode(final char c) {
+		final byte[] buf = buffer;
+		
+		if (highSurrogate != 0) {
+			final char high = highSurrogate;
+			highSurrogate = 0;
+			
+			if (Character.isLowSurrogate(c)) {
+				final int codePoint = Character.toCodePoint(high, c);
+				buf[count++] = (byte) (0xf0 | (codePoint >> 18));
+				buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buf[count++] = (byte) (0x80 | (codePoint & 0x3f));
+				return;
+			}
+			
+			// Broken pair: the '?' plus up to 3 bytes for c still fit in the 4 bytes we were promised
+			buf[count++] = '?';
+		}
+		
+		if (c < 0x80) {
+			buf[count++] = (byte) c;
+		}
+		else if (c < 0x800) {
+			buf[count++] = (byte) (0xc0 | (c >> 6));
+			buf[count++] = (byte) (0x80 | (c & 0x3f));
+		}
+		else if (Character.isHighSurrogate(c)) {
+			highSurrogate = c;
+		}
+		else if (Character.isLowSurrogate(c)) {
+			buf[count++] = '?';
+		}
+		else {
+			buf[count++] = (byte) (0xe0 | (c >> 12));
+			buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			buf[count++] = (byte) (0x80 | (c & 0x3f));
+		}
+	}
+	
+	/** Makes room for {@code bytes} more bytes: drains into the sink, if there's one, or grows the buffer */
+	private void ensure(final int bytes) throws IOException {
+		if (count + bytes > buffer.length) {
+			if (sink != null) {
+				drain();
+			}
+			else {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, count + bytes));
+			}
+		}
+	}
+	
+	private void drain() throws IOException {
+		if (sink != null && count > 0) {
+			sink.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+	
+	/** Discards everything buffered so far (for writers that are kept around instead of {@link #lease() leased}) */
+	public void clear() {
+		count = 0;
+		highSurrogate = 0;
+	}
+	
+	/** @return How many bytes are currently buffered */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * A read-only view over what was written so far (without copying). Only valid until the next {@link #lease()} on the same thread.
+	 * 
+	 * @return The UTF-8 bytes
+	 */
+	public ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(buffer, 0, count).asReadOnlyBuffer();
+	}
+	
+	/** @return A copy of what was written so far */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, count);
+	}
+	
+	/**
+	 * Writes what's buffered so far to {@code out}
+	 * 
+	 * @param out Where to write to
+	 * @throws IOException From {@code out}
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		out.write(buffer, 0, count);
+	}
+	
+	/** Drains into the sink (if there's one) and flushes it */
+	@Override
+	public void flush() throws IOException {
+		if (sink != null) {
+			drain();
+			sink.flush();
+		}
+	}
+	
+	/** Drains into the sink (if there's one, which is <strong>not</strong> closed) and returns this writer to the pool */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (highSurrogate != 0) {
+				highSurrogate = 0;
+				ensure(1);
+				buffer[count++] = '?';
+			}
+			
+			drain();
+		} finally {
+			sink = null;
+			leased = false;
+		}
+	}
+}
@@ -1,5 +1,14 @@
 package g0dkar.utils.keycloak;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 
@@ -8,8 +17,11 @@ import org.keycloak.admin.client.resource.RealmResource;
 import org.keycloak.admin.client.resource.RealmsResource;
 import org.keycloak.admin.client.resource.ServerInfoResource;
 import org.keycloak.admin.client.token.TokenManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import g0dkar.utils.Configuration;
+import g0dkar.utils.ConfigurationCache;
 
 /**
  * <p>An {@link ApplicationScoped} holder of a {@link Keycloak} instance so we
@@ -31,6 +43,10 @@ import g0dkar.utils.Configuration;
  * 
  * <p>This user will be able to do anything the Keycloak Admin Client offers.
  * 
+ * <p>When {@link #init(Configuration) initialized from the Configuration} it also subscribes to the {@code keycloak.*} configurations and
+ * logs in again whenever they change (e.g. rotated credentials), no restart needed. Changes made within a few seconds of each other are
+ * applied together and only once the new settings can login.
+ * 
  * @author Rafael Lins
  * 
  * @see #init(Configuration)
@@ -39,8 +55,31 @@ import g0dkar.utils.Configuration;
 
 @ApplicationScoped
 public class KeycloakService {
-	private Keycloak keycloak = null;
-	private String realm;
+	private static final Logger log = LoggerFactory.getLogger(KeycloakService.class);
+	private static final Map<String, String> DEFAULTS = new HashMap<>();
+	
+	static {
+		DEFAULTS.put("keycloak.realm", "realm");
+		DEFAULTS.put("keycloak.host", "http://localhost/auth");
+		DEFAULTS.put("keycloak.management.username", "username");
+		DEFAULTS.put("keycloak.management.password", "password");
+		DEFAULTS.put("keycloak.management.clientId", "clientId");
+		DEFAULTS.put("keycloak.management.clientSecret", "secret");
+	}
+	
+	/** How long {@code keycloak.*} changes are collected before logging in again (so rotating username and password is a single change) */
+	private static final long RECONFIGURATION_DELAY_SECONDS = 5;
+	/** How long a replaced client is kept open, so the requests still using it can finish */
+	private static final long CLOSE_DELAY_SECONDS = 60;
+	
+	private volatile Client client;
+	/** {@code keycloak.*} changes not applied yet */
+	private final Map<String, String> pending = new HashMap<>();
+	/** Replaced clients that weren't closed yet */
+	private final Set<Keycloak> retired = ConcurrentHashMap.newKeySet();
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> reconfiguration;
+	private ConfigurationCache.Subscription subscription;
 	
 	/**
 	 * Initializes everything loading parameters from the database using the
@@ -51,20 +90,107 @@ public class KeycloakService {
 	 *            The Configuration instance
 	 * @return {@code this} instance
 	 */
-	public KeycloakService init(final Configuration config) {
-		if (keycloak == null) {
-			final String realm = config.get("keycloak.realm", "realm");
-			final String host = config.get("keycloak.host", "http://localhost/auth");
-			final String username = config.get("keycloak.management.username", "username");
-			final String password = config.get("keycloak.management.password", "password");
-			final String clientId = config.get("keycloak.management.clientId", "clientId");
-			final String clientSecret = config.get("keycloak.management.clientSecret", "secret");
+	public synchronized KeycloakService init(final Configuration config) {
+		if (client == null) {
+			final Map<String, String> current = new HashMap<>();
+			final Map<String, String> settings = new HashMap<>();
+			
+			for (final Map.Entry<String, String> setting : DEFAULTS.entrySet()) {
+				final String value = config.get(setting.getKey());
+				current.put(setting.getKey(), value);
+				settings.put(setting.getKey(), value != null ? value : setting.getValue());
+			}
+			
+			client = new Client(settings);
+			
+			if (subscription == null) {
+				scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					final Thread thread = new Thread(runnable, "keycloak-reconfiguration");
+					thread.setDaemon(true);
+					return thread;
+				});
+				subscription = config.subscribePrefix("keycloak.", current, this::configurationChanged);
+			}
+		}
+		
+		return this;
+	}
+	
+	/** A {@code keycloak.*} configuration changed: it'll be applied along with any other change made in the next few seconds */
+	private synchronized void configurationChanged(final String name, final String value) {
+		if (DEFAULTS.containsKey(name) && client != null) {
+			pending.put(name, value != null ? value : DEFAULTS.get(name));
+			
+			if (reconfiguration == null) {
+				reconfiguration = scheduler.schedule(this::reconfigure, RECONFIGURATION_DELAY_SECONDS, TimeUnit.SECONDS);
+			}
+		}
+	}
+	
+	/**
+	 * Logs in again with the pending {@code keycloak.*} changes. The new client must get an access token before it replaces the current
+	 * one: if it can't the current one is kept (and the changes are tried again along with the next one). The replaced client is closed
+	 * {@link #CLOSE_DELAY_SECONDS} later. Only runs on the {@link #scheduler}, so never concurrently.
+	 */
+	private void reconfigure() {
+		final Client current;
+		final Map<String, String> settings;
+		
+		synchronized (this) {
+			reconfiguration = null;
+			current = client;
 			
-			return init(host, realm, username, password, clientId, clientSecret);
+			if (current == null) {
+				return;
+			}
+			
+			settings = new HashMap<>(current.settings);
+			settings.putAll(pending);
+			
+			if (settings.equals(current.settings)) {
+				pending.clear();
+				return;
+			}
+		}
+		
+		final Client next;
+		try {
+			next = new Client(settings);
+		} catch (final RuntimeException e) {
+			if (log.isWarnEnabled()) { log.warn("Couldn't reconfigure Keycloak, keeping the current client", e); }
+			return;
 		}
-		else {
-			return this;
+		
+		try {
+			next.keycloak.tokenManager().getAccessToken();
+		} catch (final RuntimeException e) {
+			next.keycloak.close();
+			if (log.isWarnEnabled()) { log.warn("Couldn't login to Keycloak with the new settings, keeping the current client", e); }
+			return;
 		}
+		
+		synchronized (this) {
+			if (client != current) {
+				// Shut down meanwhile
+				next.keycloak.close();
+				return;
+			}
+			
+			pending.entrySet().removeIf(change -> change.getValue().equals(settings.get(change.getKey())));
+			client = next;
+			retire(current.keycloak);
+		}
+		
+		if (log.isInfoEnabled()) { log.info("Keycloak reconfigured"); }
+	}
+	
+	private void retire(final Keycloak keycloak) {
+		retired.add(keycloak);
+		scheduler.schedule(() -> {
+			if (retired.remove(keycloak)) {
+				keycloak.close();
+			}
+		}, CLOSE_DELAY_SECONDS, TimeUnit.SECONDS);
 	}
 	
 	/**
@@ -86,44 +212,85 @@ public class KeycloakService {
 	 *            Client secret to login
 	 * @return {@code this} instance
 	 */
-	public KeycloakService init(final String host, final String realm, final String username, final String password, final String clientId, final String clientSecret) {
-		if (keycloak == null) {
-			this.realm = realm;
-			keycloak = Keycloak.getInstance(host, realm, username, password, clientId, clientSecret);
+	public synchronized KeycloakService init(final String host, final String realm, final String username, final String password, final String clientId, final String clientSecret) {
+		if (client == null) {
+			final Map<String, String> settings = new HashMap<>();
+			settings.put("keycloak.host", host);
+			settings.put("keycloak.realm", realm);
+			settings.put("keycloak.management.username", username);
+			settings.put("keycloak.management.password", password);
+			settings.put("keycloak.management.clientId", clientId);
+			settings.put("keycloak.management.clientSecret", clientSecret);
+			client = new Client(settings);
 		}
 		
 		return this;
 	}
 	
 	public Keycloak keycloak() {
-		return keycloak;
+		final Client current = client;
+		return current != null ? current.keycloak : null;
 	}
 	
 	public RealmsResource realms() {
-		return keycloak.realms();
+		return client.keycloak.realms();
 	}
 	
 	public RealmResource realm(final String realmName) {
-		return keycloak.realm(realmName);
+		return client.keycloak.realm(realmName);
 	}
 	
 	public RealmResource realm() {
-		return keycloak.realm(realm);
+		final Client current = client;
+		return current.keycloak.realm(current.realm);
 	}
 	
 	public ServerInfoResource serverInfo() {
-		return keycloak.serverInfo();
+		return client.keycloak.serverInfo();
 	}
 	
 	public TokenManager tokenManager() {
-		return keycloak.tokenManager();
+		return client.keycloak.tokenManager();
 	}
 	
 	@PreDestroy
-	public void finalize() {
-		if (keycloak != null) {
-			keycloak.close();
-			keycloak = null;
+	public synchronized void finalize() {
+		if (subscription != null) {
+			subscription.close();
+			subscription = null;
+		}
+		
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+			reconfiguration = null;
+			pending.clear();
+		}
+		
+		for (final Keycloak keycloak : retired) {
+			if (retired.remove(keycloak)) {
+				keycloak.close();
+			}
+		}
+		
+		if (client != null) {
+			client.keycloak.close();
+			client = null;
+		}
+	}
+	
+	/** A client along with the realm and settings it was built with, so they're always replaced together */
+	private static final class Client {
+		private final Map<String, String> settings;
+		private final String realm;
+		private final Keycloak keycloak;
+		
+		Client(final Map<String, String> settings) {
+			this.settings = settings;
+			this.realm = settings.get("keycloak.realm");
+			this.keycloak = Keycloak.getInstance(settings.get("keycloak.host"), realm, settings.get("keycloak.management.username"),
+					settings.get("keycloak.management.password"), settings.get("keycloak.management.clientId"),
+					settings.get("keycloak.management.clientSecret"));
 		}
 	}
 }
@@ -0,0 +1,104 @@
+package g0dkar.utils.keycloak;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.keycloak.representations.idm.FederatedIdentityRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import g0dkar.utils.cache.Codec;
+import g0dkar.utils.cache.CompactInput;
+import g0dkar.utils.cache.CompactOutput;
+
+/**
+ * <p>Compact {@link Codec} of the {@link UserRepresentation}s kept in the {@link UserStorage#USERS users} cache.</p>
+ * 
+ * <p>Credentials are never written (they shouldn't be cached at all), and neither are consents, social links and the deprecated
+ * application roles (which Keycloak doesn't return when listing/getting users).</p>
+ * 
+ * @author Rafael Lins
+ *
+ */
+public class UserRepresentationCodec implements Codec<UserRepresentation> {
+	/** Codec id of this format */
+	public static final int ID = 1;
+	
+	@Override
+	@SuppressWarnings("deprecation")
+	public void write(final UserRepresentation user, final CompactOutput out) {
+		out.writeString(user.getId());
+		out.writeString(user.getUsername());
+		out.writeString(user.getEmail());
+		out.writeString(user.getFirstName());
+		out.writeString(user.getLastName());
+		out.writeLong(user.getCreatedTimestamp());
+		out.writeBoolean(user.isEnabled());
+		out.writeBoolean(user.isEmailVerified());
+		out.writeBoolean(user.isTotp()); // Deprecated, but Keycloak still sends it (and dropping it would change the format)
+		out.writeInteger(user.getNotBefore());
+		out.writeString(user.getSelf());
+		out.writeString(user.getOrigin());
+		out.writeString(user.getFederationLink());
+		out.writeString(user.getServiceAccountClientId());
+		out.writeMap(user.getAttributes(), UserRepresentationCodec::writeStrings);
+		out.writeCollection(user.getRequiredActions(), CompactOutput::writeString);
+		out.writeCollection(user.getRealmRoles(), CompactOutput::writeString);
+		out.writeMap(user.getClientRoles(), UserRepresentationCodec::writeStrings);
+		out.writeCollection(user.getGroups(), CompactOutput::writeString);
+		out.writeCollection(user.getDisableableCredentialTypes(), CompactOutput::writeString);
+		out.writeMap(user.getAccess(), CompactOutput::writeBoolean);
+		out.writeCollection(user.getFederatedIdentities(), UserRepresentationCodec::writeFederatedIdentity);
+	}
+	
+	@Override
+	@SuppressWarnings("deprecation")
+	public UserRepresentation read(final CompactInput in) {
+		final UserRepresentation user = new UserRepresentation();
+		user.setId(in.readString());
+		user.setUsername(in.readString());
+		user.setEmail(in.readString());
+		user.setFirstName(in.readString());
+		user.setLastName(in.readString());
+		user.setCreatedTimestamp(in.readLong());
+		user.setEnabled(in.readBoolean());
+		user.setEmailVerified(in.readBoolean());
+		user.setTotp(in.readBoolean());
+		user.setNotBefore(in.readInteger());
+		user.setSelf(in.readString());
+		user.setOrigin(in.readString());
+		user.setFederationLink(in.readString());
+		user.setServiceAccountClientId(in.readString());
+		user.setAttributes(in.readMap(UserRepresentationCodec::readStrings));
+		user.setRequiredActions(readStrings(in));
+		user.setRealmRoles(readStrings(in));
+		user.setClientRoles(in.readMap(UserRepresentationCodec::readStrings));
+		user.setGroups(readStrings(in));
+		user.setDisableableCredentialTypes(in.readCollection(HashSet::new, CompactInput::readString));
+		user.setAccess(in.readMap(CompactInput::readBoolean));
+		user.setFederatedIdentities(in.readCollection(ArrayList::new, UserRepresentationCodec::readFederatedIdentity));
+		return user;
+	}
+	
+	private static void writeStrings(final CompactOutput out, final List<String> values) {
+		out.writeCollection(values, CompactOutput::writeString);
+	}
+	
+	private static List<String> readStrings(final CompactInput in) {
+		return in.readCollection(ArrayList::new, CompactInput::readString);
+	}
+	
+	private static void writeFederatedIdentity(final CompactOutput out, final FederatedIdentityRepresentation identity) {
+		out.writeString(identity.getIdentityProvider());
+		out.writeString(identity.getUserId());
+		out.writeString(identity.getUserName());
+	}
+	
+	private static FederatedIdentityRepresentation readFederatedIdentity(final CompactInput in) {
+		final FederatedIdentityRepresentation identity = new FederatedIdentityRepresentation();
+		identity.setIdentityProvider(in.readString());
+		identity.setUserId(in.readString());
+		identity.setUserName(in.readString());
+		return identity;
+	}
+}
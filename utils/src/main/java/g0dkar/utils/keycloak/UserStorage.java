@@ -3,9 +3,12 @@ package g0dkar.utils.keycloak;
 import java.io.Serializable;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,7 +17,6 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.ws.rs.core.Response;
 
-import org.infinispan.Cache;
 import org.keycloak.admin.client.resource.UserResource;
 import org.keycloak.representations.idm.CredentialRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
@@ -22,7 +24,9 @@ import org.slf4j.Logger;
 
 import g0dkar.utils.Configuration;
 import g0dkar.utils.StringUtils;
+import g0dkar.utils.cache.CacheRef;
 import g0dkar.utils.cache.CacheService;
+import g0dkar.utils.cache.TwoLevelCache;
 
 /**
  * Handles most of the "another User" operations. Mostly getting info about
@@ -35,6 +39,15 @@ import g0dkar.utils.cache.CacheService;
 @RequestScoped
 public class UserStorage implements Serializable {
 	private static final long serialVersionUID = 1L;
+	/**
+	 * The {@code users} cache: users by ID and by e-mail, stored off-heap with a {@link UserRepresentationCodec} (up to 64MB, a few hundred
+	 * thousand users), read through a {@link TwoLevelCache} and kept across restarts if it's a local cache and there's a
+	 * {@link CacheService#SNAPSHOT_DIRECTORY snapshot directory} (snapshots up to an hour old)
+	 */
+	public static final CacheRef<String, UserRepresentation> USERS = CacheRef.of("users", String.class, UserRepresentation.class)
+			.codec(UserRepresentationCodec.ID, new UserRepresentationCodec())
+			.offHeap(64L * 1024 * 1024)
+			.warmRestart(1, TimeUnit.HOURS);
 	private static final Pattern UUID_PATTERN = Pattern.compile(".+([a-f0-9]{8}-[a-f0-9]{4}-[a-f0-9]{4}-[a-f0-9]{4}-[a-f0-9]{12})");
 	
 	private final Logger log;
@@ -55,75 +68,130 @@ public class UserStorage implements Serializable {
 		}
 	}
 	
+	/**
+	 * Gets a user from the cache or, on a miss, from Keycloak (through the {@code users} {@link g0dkar.utils.cache.LoadingCache LoadingCache}:
+	 * concurrent misses for the same ID make a single Keycloak call). A loaded user is cached by e-mail too.
+	 * 
+	 * @param id User ID
+	 * @return The user or {@code null} if there's none
+	 */
 	public UserRepresentation get(final String id) {
-		final Cache<String, UserRepresentation> cache = cs.getCache("users");
-		UserRepresentation user = cache.get(id);
-		
+		final TwoLevelCache<String, UserRepresentation> cache = cs.getTwoLevelCache(USERS);
+		return cache.get(id, key -> cache(cache, fetch(key), key));
+	}
+	
+	/**
+	 * Caches a user by ID and by (normalized) e-mail, except under {@code loadedBy} (the key the cache is storing it under itself)
+	 * 
+	 * @return {@code user}
+	 */
+	private static UserRepresentation cache(final TwoLevelCache<String, UserRepresentation> cache, final UserRepresentation user, final String loadedBy) {
 		if (user != null) {
-			return user;
-		} else {
-			try {
-				final UserResource userResource = keycloak.realm().users().get(id);
+			if (!user.getId().equals(loadedBy)) {
+				cache.put(user.getId(), user);
+			}
+			
+			if (user.getEmail() != null && !emailKey(user.getEmail()).equals(loadedBy)) {
+				cache.put(emailKey(user.getEmail()), user);
+			}
+		}
+		
+		return user;
+	}
+	
+	/** @return The key of a user in the cache by e-mail */
+	private static String emailKey(final String email) {
+		return email.trim().toLowerCase(Locale.ROOT);
+	}
+	
+	/** @return The user, with an avatar (a Gravatar one, if it had none) */
+	private static UserRepresentation withAvatar(final UserRepresentation user) {
+		if (user.getAttributes() == null) {
+			user.setAttributes(new HashMap<>());
+		}
+		
+		if (!user.getAttributes().containsKey("avatar")) {
+			user.getAttributes().put("avatar", Arrays.asList("https://gravatar.com/avatar/" + StringUtils.md5(user.getEmail())));
+		}
+		
+		return user;
+	}
+	
+	/**
+	 * Gets many users at once: the cached ones with a single cache lookup and the missing ones from Keycloak, one call per missing ID
+	 * (Keycloak has no "get these users" call). Loaded users are cached by ID and by e-mail.
+	 * 
+	 * @param ids User IDs
+	 * @return The users found, by ID, in the order of {@code ids}
+	 */
+	public Map<String, UserRepresentation> getAll(final Collection<String> ids) {
+		final TwoLevelCache<String, UserRepresentation> cache = cs.getTwoLevelCache(USERS);
+		return cache.getAll(ids, missing -> {
+			final Map<String, UserRepresentation> users = new HashMap<>(missing.size() * 4 / 3 + 1);
+			
+			for (final String id : missing) {
+				final UserRepresentation user = cache(cache, fetch(id), id);
 				
-				if (userResource != null) {
-					user = userResource.toRepresentation();
-					cache.put(user.getId(), user);
-					cache.put(user.getEmail(), user);
-					
-					if (user.getAttributes() == null) {
-						user.setAttributes(new HashMap<>());
-					}
-					
-					if (!user.getAttributes().containsKey("avatar")) {
-						user.getAttributes().put("avatar", Arrays.asList("https://gravatar.com/avatar/" + StringUtils.md5(user.getEmail())));
-					}
-				}
-			} catch (final Exception e) {
-				if (log.isErrorEnabled()) {
-					log.error("Exception while looking up Keycloak User", e);
+				if (user != null) {
+					users.put(id, user);
 				}
 			}
+			
+			return users;
+		});
+	}
+	
+	/** Gets a user from Keycloak (skipping the cache) */
+	private UserRepresentation fetch(final String id) {
+		try {
+			final UserResource userResource = keycloak.realm().users().get(id);
+			
+			if (userResource != null) {
+				return withAvatar(userResource.toRepresentation());
+			}
+		} catch (final Exception e) {
+			if (log.isErrorEnabled()) {
+				log.error("Exception while looking up Keycloak User", e);
+			}
 		}
 		
-		return user;
+		return null;
 	}
 	
 	public boolean exists(final String id) {
-		final Cache<String, UserRepresentation> cache = cs.getCache("users");
+		final TwoLevelCache<String, UserRepresentation> cache = cs.getTwoLevelCache(USERS);
 		return cache.containsKey(id) || get(id) != null;
 	}
 	
+	/**
+	 * Gets a user by e-mail from the cache or, on a miss, from Keycloak (just like {@link #get(String)}). A loaded user is cached by ID
+	 * too.
+	 * 
+	 * @param email The e-mail (case and surrounding spaces don't matter)
+	 * @return The user or {@code null} if there's none
+	 */
 	public UserRepresentation fromEmail(final String email) {
-		final Cache<String, UserRepresentation> cache = cs.getCache("users");
-		UserRepresentation user = cache.get(email.trim().toLowerCase());
+		final TwoLevelCache<String, UserRepresentation> cache = cs.getTwoLevelCache(USERS);
+		return cache.get(emailKey(email), key -> cache(cache, search(email), key));
+	}
+	
+	/** Looks a user up by e-mail on Keycloak (skipping the cache) */
+	private UserRepresentation search(final String email) {
+		UserRepresentation user = null;
 		
-		if (user != null) {
-			return user;
-		} else {
-			try {
-				final List<UserRepresentation> found = keycloak.realm().users().search(null, null, null, email, 0, 1);
-				
-				if (found != null && !found.isEmpty()) {
-					for (final UserRepresentation userRepresentation : found) {
-						if (userRepresentation.getEmail().equalsIgnoreCase(email.trim())) {
-							user = userRepresentation;
-							cache.put(user.getId(), user);
-							cache.put(user.getEmail().trim().toLowerCase(), user);
-							
-							if (user.getAttributes() == null) {
-								user.setAttributes(new HashMap<>());
-							}
-							
-							if (!user.getAttributes().containsKey("avatar")) {
-								user.getAttributes().put("avatar", Arrays.asList("https://gravatar.com/avatar/" + StringUtils.md5(user.getEmail())));
-							}
-						}
+		try {
+			final List<UserRepresentation> found = keycloak.realm().users().search(null, null, null, email, 0, 1);
+			
+			if (found != null && !found.isEmpty()) {
+				for (final UserRepresentation userRepresentation : found) {
+					if (userRepresentation.getEmail().equalsIgnoreCase(email.trim())) {
+						user = withAvatar(userRepresentation);
 					}
 				}
-			} catch (final Exception e) {
-				if (log.isErrorEnabled()) {
-					log.error("Exception while looking up Keycloak User", e);
-				}
+			}
+		} catch (final Exception e) {
+			if (log.isErrorEnabled()) {
+				log.error("Exception while looking up Keycloak User", e);
 			}
 		}
 		